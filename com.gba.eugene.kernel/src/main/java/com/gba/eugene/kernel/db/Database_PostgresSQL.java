@@ -209,6 +209,12 @@ public class Database_PostgresSQL implements SystemDatabase{
         return true;
     }
 
+    @Override
+    public int getMaxConnections() {
+        HikariDataSource ds = m_ds;
+        return ds == null ? 0 : ds.getMaximumPoolSize();
+    }
+
     /**
      * Allows the connection pool to be lazily initialized. While it might be preferable to do
      * this once upon initialization of this class the current design of iDempiere makes this
@@ -74,7 +74,7 @@ public class PreparedStatementProxy extends StatementProxy{
             }
             if (conn == null)
                 throw new DBException("No Connection");
-            p_stmt = conn.createStatement(p_vo.getResultSetType(), p_vo.getResultSetConcurrency());
+            p_stmt = conn.prepareStatement(p_vo.getSql(), p_vo.getResultSetType(), p_vo.getResultSetConcurrency());
         }
         catch (SQLException e)
         {
@@ -111,6 +111,12 @@ public interface SystemDatabase {
      */
     public boolean supportsBLOB();
 
+    /**
+     *  Get maximum number of pooled connections
+     *  @return pool size or 0 if not pooled yet
+     */
+    public int getMaxConnections();
+
     /**
      *  String Representation
      *  @return info
@@ -1,35 +1,167 @@
 package com.gba.eugene.kernel.util;
 
-import java.beans.VetoableChangeListener;
-import java.beans.VetoableChangeSupport;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
-public class CCache<K,V> extends HashMap<K, V> implements ICache {
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *	Cache for table lookups.<br/>
+ *	Backed by a {@link ConcurrentHashMap}, so instances can be shared between request threads
+ *	without external locking. As the backing map does not permit null values,
+ *	putting a null value removes the key.<br/>
+ *	A cache can be bounded by a maximum number of entries or a maximum weight;
+ *	entries are then evicted by {@link CacheEvictionPolicy} based on recency and frequency.<br/>
+ *	Entries expire individually, after write (default) or after last access. Expiry is scheduled
+ *	on a {@link CacheTimerWheel} advanced by the maintenance thread of {@link CacheMgt}, so reads
+ *	only look up the map; an entry may be returned up to about a second after it expired.<br/>
+ *	{@link #get(Object, Function)} and {@link #getAll(Collection, Function)} load missing
+ *	entries; concurrent misses of the same key wait for a single load.<br/>
+ *	A cache declaring how its keys map to record IDs ({@link #setRecordIdMapper(ToIntFunction)})
+ *	is invalidated per record by {@link CacheMgt#reset(String, int)}.<br/>
+ *	With {@link #setRefreshAfterWrite(long, TimeUnit, Function)} entries older than the refresh
+ *	interval are reloaded in the background on first read, while the read returns the current value.<br/>
+ *	The heap used is estimated from the weights (taken as bytes) or the estimated entry size,
+ *	so {@link CacheMgt} can shrink the cache to keep all caches within its heap budget.<br/>
+ *	{@link CacheRemovalListener}s are told about every entry leaving the cache and why,
+ *	either synchronously or in batches on a background thread.<br/>
+ *	A cache is not serializable, as it is registered with {@link CacheMgt} and holds loads,
+ *	listeners and schedules; {@link CacheSnapshot} persists its entries.
+ */
+public class CCache<K,V> extends AbstractMap<K, V> implements ICache {
+
+    private static final Logger log = LoggerFactory.getLogger(CCache.class);
+
+    /**	Backing Map					*/
+    private final ConcurrentHashMap<K, Node<K,V>> m_cache;
+    /**	Eviction Policy - null if unbounded	*/
+    private CacheEvictionPolicy<K,V> m_policy = null;
+    /**	Entry Weigher - null to count entries	*/
+    private CacheWeigher<? super K, ? super V> m_weigher = null;
 
     /**	Name						*/
     private String				m_name = null;
     /** Expire after minutes		*/
-    private int					m_expire = 0;
-    /** Time						*/
-    private volatile long		m_timeExp = 0;
+    private volatile int		m_expire = 0;
+    /** Expire after milliseconds	*/
+    private volatile long		m_expireMS = 0;
+    /** Expire after access instead of write	*/
+    private volatile boolean	m_expireAfterAccess = false;
+    /**	Expiry Schedule				*/
+    private final CacheTimerWheel<K,V> m_wheel = new CacheTimerWheel<K,V>(this::expiresAt);
     /**	Just reset - not used		*/
-    private boolean				m_justReset = true;
+    private volatile boolean	m_justReset = true;
+    /**	Key to Record_ID - null if unknown	*/
+    private volatile ToIntFunction<? super K> m_recordIdMapper = null;
+    /**	Number of clear calls - a load started before a clear is not cached	*/
+    private final AtomicLong	m_resetCount = new AtomicLong();
+    /**	Time of last reset or 0		*/
+    private volatile long		m_resetTime = 0;
+    /** Refresh after milliseconds	*/
+    private volatile long		m_refreshMS = 0;
+    /**	Loader for refresh - null if no refresh	*/
+    private volatile Function<? super K, ? extends V> m_reloader = null;
+    /**	Loads in progress			*/
+    private final ConcurrentHashMap<K, CompletableFuture<V>> m_loading = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+    /**	Estimated bytes per entry if no weigher	*/
+    private volatile int		m_entryBytes = DEFAULT_ENTRY_BYTES;
+
+    /**	Statistics Counters			*/
+    private final LongAdder		m_hitCount = new LongAdder();
+    private final LongAdder		m_missCount = new LongAdder();
+    private final LongAdder		m_loadSuccessCount = new LongAdder();
+    private final LongAdder		m_loadFailureCount = new LongAdder();
+    private final LongAdder		m_totalLoadTime = new LongAdder();
+    private final LongAdder		m_expirationCount = new LongAdder();
+    /**	Entries removed by shrink of unbounded cache	*/
+    private final LongAdder		m_shrinkCount = new LongAdder();
+
+    /**	Removal Listeners called by the removing thread	*/
+    private final List<CacheRemovalListener<? super K, ? super V>> m_removalListeners = new CopyOnWriteArrayList<CacheRemovalListener<? super K, ? super V>>();
+    /**	Removal Listeners called in the background	*/
+    private final List<CacheRemovalListener<? super K, ? super V>> m_asyncRemovalListeners = new CopyOnWriteArrayList<CacheRemovalListener<? super K, ? super V>>();
+    /**	Removals waiting for background delivery	*/
+    private final ConcurrentLinkedQueue<Removal<K,V>> m_pendingRemovals = new ConcurrentLinkedQueue<Removal<K,V>>();
+    /**	Background delivery scheduled or running	*/
+    private final AtomicBoolean m_delivering = new AtomicBoolean();
 
-    /** Vetoable Change Support			*/
-    private VetoableChangeSupport m_changeSupport = null;
-    /** Vetoable Change Support	Name	*/
-    private static String		PROPERTYNAME = "cache";
+
+    /**	Default estimated bytes per entry: map and cache node, key and small value	*/
+    public static final int		DEFAULT_ENTRY_BYTES = 200;
+
+    /**	Executor of background refresh and removal delivery - one virtual thread per task	*/
+    private static final ExecutorService s_executor = Executors.newVirtualThreadPerTaskExecutor();
+    /**	Removals delivered per background task	*/
+    private static final int	REMOVAL_BATCH = 256;
+
+    /**	Record ID mapper of caches keyed by Record_ID	*/
+    public static final ToIntFunction<Integer>	RECORD_ID_KEY = Integer::intValue;
 
     public CCache (String name, int initialCapacity){
         this (name, initialCapacity, 120);
     }
 
     public CCache (String name, int initialCapacity, int expireMinutes){
-        super(initialCapacity);
+        this (name, initialCapacity, expireMinutes, 0L, null);
+    }
+
+    /**
+     * 	Size bounded Cache
+     *	@param name (table) name
+     *	@param initialCapacity initial capacity
+     *	@param expireMinutes expire after minutes or 0
+     *	@param maxSize maximum number of entries or 0 for unbounded
+     */
+    public CCache (String name, int initialCapacity, int expireMinutes, int maxSize){
+        this (name, initialCapacity, expireMinutes, (long) maxSize, null);
+    }
+
+    /**
+     * 	Weight bounded Cache
+     *	@param name (table) name
+     *	@param initialCapacity initial capacity
+     *	@param expireMinutes expire after minutes or 0
+     *	@param maxWeight maximum total weight or 0 for unbounded
+     *	@param weigher entry weigher or null to count entries
+     */
+    public CCache (String name, int initialCapacity, int expireMinutes, long maxWeight, CacheWeigher<? super K, ? super V> weigher){
+        m_cache = new ConcurrentHashMap<K, Node<K,V>>(initialCapacity);
         m_name = name;
+        if (maxWeight > 0)
+        {
+            m_weigher = weigher;
+            long expectedSize = weigher == null ? maxWeight : Math.max(initialCapacity, 16);
+            m_policy = new CacheEvictionPolicy<K,V>(m_cache, maxWeight, expectedSize,
+                    node -> {
+                        schedule(node, null);
+                        notifyRemoval(node, RemovalCause.EVICTED);
+                    });
+        }
         setExpireMinutes(expireMinutes);
         CacheMgt.get().register(this);
     }
@@ -44,7 +176,7 @@ public class CCache<K,V> extends HashMap<K, V> implements ICache {
     }	//	getName
 
     /**
-     * 	Set Expire Minutes and start it
+     * 	Set Expire Minutes of each entry
      *	@param expireMinutes minutes or 0
      */
     public void setExpireMinutes (int expireMinutes)
@@ -52,14 +184,16 @@ public class CCache<K,V> extends HashMap<K, V> implements ICache {
         if (expireMinutes > 0)
         {
             m_expire = expireMinutes;
-            long addMS = 60000L * m_expire;
-            m_timeExp = System.currentTimeMillis() + addMS;
+            m_expireMS = 60000L * m_expire;
         }
         else
         {
             m_expire = 0;
-            m_timeExp = 0;
+            m_expireMS = 0;
         }
+        m_wheel.rescheduleAll(m_cache.values());
+        if (m_expireMS != 0)
+            CacheMgt.get().startMaintenance();
     }	//	setExpireMinutes
 
     /**
@@ -71,6 +205,146 @@ public class CCache<K,V> extends HashMap<K, V> implements ICache {
         return m_expire;
     }	//	getExpireMinutes
 
+    /**
+     * 	Set Expire Mode
+     *	@param expireAfterAccess true to expire entries not read for expire minutes,
+     *		false to expire entries written expire minutes ago
+     */
+    public void setExpireAfterAccess (boolean expireAfterAccess)
+    {
+        m_expireAfterAccess = expireAfterAccess;
+        m_wheel.rescheduleAll(m_cache.values());
+    }	//	setExpireAfterAccess
+
+    /**
+     * 	Expire after access
+     *	@return true if entries expire after last access, false if after write
+     */
+    public boolean isExpireAfterAccess()
+    {
+        return m_expireAfterAccess;
+    }	//	isExpireAfterAccess
+
+    /**
+     * 	Set Refresh Interval.<br/>
+     * 	A read of an entry written longer ago than the interval returns the cached value and
+     * 	reloads it on a virtual thread; only one reload per key runs at a time.
+     * 	The interval should be shorter than the expiry, as expired entries are not refreshed.
+     *	@param duration refresh after duration or 0 for no refresh
+     *	@param unit time unit of duration
+     *	@param reloader loads the current value, returns null if the record no longer exists
+     */
+    public void setRefreshAfterWrite (long duration, TimeUnit unit, Function<? super K, ? extends V> reloader)
+    {
+        if (duration > 0 && reloader == null)
+            throw new IllegalArgumentException("Refresh requires a loader");
+        m_reloader = duration > 0 ? reloader : null;
+        m_refreshMS = duration > 0 ? Math.max(1, unit.toMillis(duration)) : 0;
+    }	//	setRefreshAfterWrite
+
+    /**
+     * 	Get Refresh Interval
+     *	@return refresh after milliseconds or 0
+     */
+    public long getRefreshAfterWriteMS()
+    {
+        return m_refreshMS;
+    }	//	getRefreshAfterWriteMS
+
+    /**
+     * 	Is the Cache bounded
+     *	@return true if entries are evicted by size or weight
+     */
+    public boolean isBounded()
+    {
+        return m_policy != null;
+    }	//	isBounded
+
+    /**
+     * 	Get Maximum Size or Weight
+     *	@return maximum or 0 if unbounded
+     */
+    public long getMaxWeight()
+    {
+        return m_policy == null ? 0 : m_policy.getMaximum();
+    }	//	getMaxWeight
+
+    /**
+     * 	Get Weight of all entries.
+     *	Equals the number of entries if no weigher is defined.
+     *	@return weighted size
+     */
+    public long weightedSize()
+    {
+        return m_policy == null ? m_cache.size() : m_policy.getWeightedSize();
+    }	//	weightedSize
+
+    /**
+     * 	Set estimated Entry Size, used if the cache has no weigher
+     *	@param entryBytes estimated heap bytes per entry, including key and value
+     */
+    public void setEstimatedEntryBytes (int entryBytes)
+    {
+        m_entryBytes = Math.max(1, entryBytes);
+    }	//	setEstimatedEntryBytes
+
+    /**
+     * 	Get estimated Entry Size
+     *	@return bytes per entry
+     */
+    public int getEstimatedEntryBytes()
+    {
+        return m_entryBytes;
+    }	//	getEstimatedEntryBytes
+
+    /**
+     * 	Get estimated Heap used by the entries.
+     *	The total weight if a weigher is defined, otherwise size times estimated entry size.
+     *	@return bytes
+     */
+    @Override
+    public long estimatedBytes()
+    {
+        if (m_weigher != null)
+            return weightedSize();
+        return (long) m_cache.size() * m_entryBytes;
+    }	//	estimatedBytes
+
+    /**
+     * 	Shrink Cache.<br/>
+     * 	A bounded cache evicts its least valuable entries according to the eviction policy.
+     * 	An unbounded cache has no access order, so it drops expired entries first, then others.
+     *	@param bytes estimated bytes to free
+     *	@return estimated bytes freed
+     */
+    @Override
+    public long shrink (long bytes)
+    {
+        if (bytes <= 0 || m_cache.isEmpty())
+            return 0;
+        int entryBytes = m_entryBytes;
+        if (m_policy != null)
+        {
+            if (m_weigher != null)
+                return m_policy.shrink(bytes);
+            return m_policy.shrink((bytes + entryBytes - 1) / entryBytes) * entryBytes;
+        }
+        long freed = (long) cleanUp() * entryBytes;
+        for (Node<K,V> node : m_cache.values())
+        {
+            if (freed >= bytes)
+                break;
+            if (m_cache.remove(node.key, node))
+            {
+                schedule(node, null);
+                m_shrinkCount.increment();
+                notifyRemoval(node, RemovalCause.EVICTED);
+                freed += entryBytes;
+            }
+        }
+        return freed;
+    }	//	shrink
+
     /**
      * 	Cache was reset
      *	@return true if reset
@@ -94,50 +368,246 @@ public class CCache<K,V> extends HashMap<K, V> implements ICache {
      */
     public int reset()
     {
-        int no = super.size();
+        int no = m_cache.size();
         clear();
         return no;
     }	//	reset
 
     /**
-     * 	Clear cache and calculate new expiry time
+     * 	Get Time of last reset or clear
+     *	@return time in ms or 0 if never reset
+     */
+    public long getResetTime()
+    {
+        return m_resetTime;
+    }	//	getResetTime
+
+    /**
+     * 	Set Record ID Mapper.<br/>
+     * 	Declares which record a key belongs to, so a change of one record only
+     * 	invalidates its entries. Use {@link #RECORD_ID_KEY} if the key is the Record_ID.
+     *	@param recordIdMapper returns the Record_ID of a key, null to reset all entries on any change
+     */
+    public void setRecordIdMapper (ToIntFunction<? super K> recordIdMapper)
+    {
+        m_recordIdMapper = recordIdMapper;
+    }	//	setRecordIdMapper
+
+    /**
+     * 	Get Record ID Mapper
+     *	@return mapper or null
+     */
+    public ToIntFunction<? super K> getRecordIdMapper()
+    {
+        return m_recordIdMapper;
+    }	//	getRecordIdMapper
+
+    /**
+     *	Reset entries of record.<br/>
+     *	Resets the whole cache if no record ID mapper is defined.
+     *	@param Record_ID record
+     * 	@return number of items cleared
+     */
+    @Override
+    public int reset (int Record_ID)
+    {
+        ToIntFunction<? super K> mapper = m_recordIdMapper;
+        if (mapper == null || Record_ID <= 0)
+            return reset();
+        //	a running load may have read the old record
+        m_resetCount.incrementAndGet();
+        m_resetTime = System.currentTimeMillis();
+        if (mapper == RECORD_ID_KEY)
+            return removeNode(Integer.valueOf(Record_ID), RemovalCause.RESET) != null ? 1 : 0;
+        int no = 0;
+        for (K key : m_cache.keySet())
+        {
+            if (mapper.applyAsInt(key) == Record_ID && removeNode(key, RemovalCause.RESET) != null)
+                no++;
+        }
+        return no;
+    }	//	reset
+
+    /**
+     *	Remove entry of changed record.<br/>
+     *	Unlike {@link #remove(Object)}, loads running meanwhile do not cache the value they read.
+     *	@param key key
+     *	@return true if an entry was removed
+     */
+    public boolean invalidate (Object key)
+    {
+        //	a running load may have read the old record
+        m_resetCount.incrementAndGet();
+        return removeNode(key, RemovalCause.RESET) != null;
+    }	//	invalidate
+
+    /**
+     * 	Clear cache
      *	@see java.util.Map#clear()
      */
     public void clear()
     {
-        if (m_changeSupport != null)
+        m_resetCount.incrementAndGet();
+        m_resetTime = System.currentTimeMillis();
+        if (hasRemovalListeners() || m_expireMS != 0)
         {
-            try
-            {
-                m_changeSupport.fireVetoableChange(PROPERTYNAME, super.size(), 0);
-            }
-            catch (Exception e)
+            //	one by one to report the entries and unschedule them with their removal,
+            //	so an entry put meanwhile stays scheduled
+            for (Node<K,V> node : m_cache.values())
             {
-                System.out.println ("CCache.clear - " + e);
-                return;
+                if (m_cache.remove(node.key, node))
+                {
+                    schedule(node, null);
+                    if (m_policy != null)
+                        m_policy.onRemove(node);
+                    notifyRemoval(node, RemovalCause.RESET);
+                }
             }
         }
-        //	Clear
-        super.clear();
-        if (m_expire != 0)
+        else
         {
-            long addMS = 60000L * m_expire;
-            m_timeExp = System.currentTimeMillis() + addMS;
+            if (m_policy != null)
+                m_policy.clear();
+            else
+                m_cache.clear();
+            //	entries scheduled before expiry was switched off
+            m_wheel.clear();
         }
         m_justReset = true;
     }	//	clear
 
     /**
-     * 	Expire Cache if enabled
+     * 	Remove all expired entries
+     *	@return number of entries removed
      */
-    private void expire()
+    public int cleanUp()
     {
-        if (m_expire != 0 && m_timeExp < System.currentTimeMillis())
+        if (m_expireMS == 0)
+            return 0;
+        int no = 0;
+        long now = CacheMgt.nowMillis();
+        for (Node<K,V> node : m_cache.values())
+        {
+            if (isExpired(node, now) && expireNode(node))
+                no++;
+        }
+        return no;
+    }	//	cleanUp
+
+    /**
+     * 	Entry expired
+     *	@param node entry
+     *	@param now current time
+     *	@return true if expired
+     */
+    private boolean isExpired (Node<K,V> node, long now)
+    {
+        long expireMS = m_expireMS;
+        if (expireMS == 0)
+            return false;
+        long base = m_expireAfterAccess ? node.accessTime : node.writeTime;
+        return now - base >= expireMS;
+    }	//	isExpired
+
+    /**
+     * 	Expiry Time of entry
+     *	@param node entry
+     *	@return time or Long.MAX_VALUE if it does not expire
+     */
+    private long expiresAt (Node<K,V> node)
+    {
+        long expireMS = m_expireMS;
+        if (expireMS == 0)
+            return Long.MAX_VALUE;
+        return (m_expireAfterAccess ? node.accessTime : node.writeTime) + expireMS;
+    }	//	expiresAt
+
+    /**
+     * 	Expire entries due - called by the maintenance thread of {@link CacheMgt}
+     *	@param now current time
+     *	@return number of entries expired
+     */
+    int expireEntries (long now)
+    {
+        int no = 0;
+        for (Node<K,V> node : m_wheel.advance(now))
+        {
+            if (expireNode(node))
+                no++;
+        }
+        return no;
+    }	//	expireEntries
+
+    /**
+     * 	Schedule expiry of entry
+     *	@param old entry replaced or removed or null
+     *	@param node entry added or null
+     */
+    private void schedule (Node<K,V> old, Node<K,V> node)
+    {
+        if (m_expireMS != 0 || (old != null && old.timerNext != null))
+            m_wheel.replace(old, node);
+    }	//	schedule
+
+    /**
+     * 	Get entry.<br/>
+     * 	Expired entries are removed by the maintenance thread; only if it is not running
+     * 	they are checked and removed here.
+     *	@param key key
+     *	@return node or null
+     */
+    private Node<K,V> getNode (Object key)
+    {
+        if (key == null)
+            return null;
+        Node<K,V> node = m_cache.get(key);
+        if (node == null || m_expireMS == 0)
+            return node;
+        if (CacheMgt.isMaintained())
+        {
+            if (m_expireAfterAccess)
+            {
+                long now = CacheMgt.currentTimeMillis();
+                if (node.accessTime != now)
+                    node.accessTime = now;
+            }
+            return node;
+        }
+        long now = CacheMgt.nowMillis();
+        if (isExpired(node, now))
         {
-            //	System.out.println ("------------ Expired: " + getName() + " --------------------");
-            reset();
+            expireNode(node);
+            return null;
         }
-    }	//	expire
+        if (m_expireAfterAccess)
+            node.accessTime = now;
+        return node;
+    }	//	getNode
+
+    /**
+     * 	Remove expired entry if still mapped
+     *	@param node entry
+     *	@return true if removed
+     */
+    private boolean expireNode (Node<K,V> node)
+    {
+        if (!m_cache.remove(node.key, node))
+            return false;
+        schedule(node, null);
+        if (m_policy != null)
+            m_policy.onRemove(node);
+        m_expirationCount.increment();
+        notifyRemoval(node, RemovalCause.EXPIRED);
+        return true;
+    }	//	expireNode
+
+    /**
+     * 	Entry written
+     */
+    private void afterWrite()
+    {
+        m_justReset = false;
+    }	//	afterWrite
 
     /**
      * 	String Representation
@@ -147,7 +617,8 @@ public class CCache<K,V> extends HashMap<K, V> implements ICache {
     {
         return "CCache[" + m_name
                 + ",Exp=" + getExpireMinutes()
-                + ", #" + super.size() + "]";
+                + (m_policy != null ? ",Max=" + m_policy.getMaximum() : "")
+                + ", #" + m_cache.size() + "]";
     }	//	toString
 
     /**
@@ -155,8 +626,7 @@ public class CCache<K,V> extends HashMap<K, V> implements ICache {
      */
     public boolean containsKey(Object key)
     {
-        expire();
-        return super.containsKey(key);
+        return getNode(key) != null;
     }	//	containsKey
 
     /**
@@ -164,8 +634,15 @@ public class CCache<K,V> extends HashMap<K, V> implements ICache {
      */
     public boolean containsValue(Object value)
     {
-        expire();
-        return super.containsValue(value);
+        if (value == null)
+            return false;
+        long now = CacheMgt.nowMillis();
+        for (Node<K,V> node : m_cache.values())
+        {
+            if (value.equals(node.value) && !isExpired(node, now))
+                return true;
+        }
+        return false;
     }	//	containsValue
 
     /**
@@ -173,8 +650,7 @@ public class CCache<K,V> extends HashMap<K, V> implements ICache {
      */
     public Set<Entry<K,V>> entrySet()
     {
-        expire();
-        return super.entrySet();
+        return new EntrySet();
     }	//	entrySet
 
     /**
@@ -182,59 +658,450 @@ public class CCache<K,V> extends HashMap<K, V> implements ICache {
      */
     public V get(Object key)
     {
-        expire();
-        return super.get(key);
+        Node<K,V> node = getNode(key);
+        if (node == null)
+        {
+            m_missCount.increment();
+            return null;
+        }
+        m_hitCount.increment();
+        if (m_policy != null)
+            m_policy.onAccess(node);
+        if (m_refreshMS != 0 && CacheMgt.currentTimeMillis() - node.writeTime >= m_refreshMS)
+            refresh(node);
+        return node.value;
     }	//	get
 
+    /**
+     * 	Reload entry in the background unless a load of the key is running.<br/>
+     * 	The reloaded value only replaces the entry if it was not changed or reset meanwhile.
+     *	@param node stale entry
+     */
+    private void refresh (Node<K,V> node)
+    {
+        Function<? super K, ? extends V> reloader = m_reloader;
+        if (reloader == null)
+            return;
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        if (m_loading.putIfAbsent(node.key, future) != null)
+            return;
+        long resetCount = m_resetCount.get();
+        s_executor.execute(() -> {
+            V value = node.value;
+            long start = System.nanoTime();
+            try
+            {
+                V loaded = reloader.apply(node.key);
+                recordLoad(start, loaded != null);
+                if (loaded != null)
+                    putLoaded(node.key, node, loaded, resetCount);
+                else if (m_cache.remove(node.key, node))
+                {
+                    schedule(node, null);
+                    if (m_policy != null)
+                        m_policy.onRemove(node);
+                    notifyRemoval(node, RemovalCause.EXPLICIT);
+                }
+                value = loaded;
+            }
+            catch (RuntimeException | Error e)
+            {
+                //	keep serving the current value, next read retries
+                recordLoad(start, false);
+                log.warn(m_name + ": refresh of " + node.key + " failed", e);
+            }
+            finally
+            {
+                future.complete(value);
+                m_loading.remove(node.key, future);
+            }
+        });
+    }	//	refresh
+
+    /**
+     * 	Get Statistics
+     *	@return snapshot of counters
+     */
+    public CacheStats getStats()
+    {
+        return new CacheStats(m_name, m_cache.size(),
+                m_hitCount.sum(), m_missCount.sum(),
+                m_loadSuccessCount.sum(), m_loadFailureCount.sum(), m_totalLoadTime.sum(),
+                m_shrinkCount.sum() + (m_policy == null ? 0 : m_policy.getEvictionCount()),
+                m_expirationCount.sum());
+    }	//	getStats
+
+    /**
+     * 	Get value, loading it if missing.<br/>
+     * 	Concurrent calls for the same missing key run the loader once,
+     * 	the other callers wait for its result.
+     *	@param key key
+     *	@param loader loads the value, may return null if not found
+     *	@return value or null
+     *	@throws RuntimeException exception thrown by the loader, also for waiting callers
+     */
+    public V get (K key, Function<? super K, ? extends V> loader)
+    {
+        V value = get(key);
+        if (value != null || loader == null)
+            return value;
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        CompletableFuture<V> loading = m_loading.putIfAbsent(key, future);
+        if (loading != null)
+            return await(loading);
+        long start = 0;
+        try
+        {
+            //	loaded while we registered
+            Node<K,V> node = getNode(key);
+            if (node != null)
+            {
+                value = node.value;
+            }
+            else
+            {
+                long resetCount = m_resetCount.get();
+                start = System.nanoTime();
+                value = loader.apply(key);
+                recordLoad(start, value != null);
+                if (value != null)
+                    putLoaded(key, null, value, resetCount);
+            }
+            future.complete(value);
+            return value;
+        }
+        catch (RuntimeException | Error e)
+        {
+            if (start != 0)
+                recordLoad(start, false);
+            future.completeExceptionally(e);
+            throw e;
+        }
+        finally
+        {
+            m_loading.remove(key, future);
+        }
+    }	//	get
+
+    /**
+     * 	Get values, loading the missing ones with one call.<br/>
+     * 	Keys already being loaded by another thread are not loaded again.
+     *	@param keys keys
+     *	@param bulkLoader loads the values of the keys passed, keys not found may be omitted
+     *	@return values found in the order of keys
+     *	@throws RuntimeException exception thrown by the loader
+     *	@see DB#bulkLoader(String, String, RowMapper, RowMapper)
+     */
+    public Map<K,V> getAll (Collection<? extends K> keys,
+            Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> bulkLoader)
+    {
+        Map<K,V> found = new HashMap<K,V>();
+        Map<K, CompletableFuture<V>> waiting = new HashMap<K, CompletableFuture<V>>();
+        Map<K, CompletableFuture<V>> owned = new LinkedHashMap<K, CompletableFuture<V>>();
+        for (K key : keys)
+        {
+            if (found.containsKey(key) || waiting.containsKey(key) || owned.containsKey(key))
+                continue;
+            V value = get(key);
+            if (value != null)
+            {
+                found.put(key, value);
+                continue;
+            }
+            CompletableFuture<V> future = new CompletableFuture<V>();
+            CompletableFuture<V> loading = m_loading.putIfAbsent(key, future);
+            if (loading != null)
+                waiting.put(key, loading);
+            else
+                owned.put(key, future);
+        }
+
+        if (!owned.isEmpty())
+        {
+            long start = System.nanoTime();
+            boolean loadDone = false;
+            try
+            {
+                long resetCount = m_resetCount.get();
+                Map<? extends K, ? extends V> loaded = bulkLoader.apply(Collections.unmodifiableSet(owned.keySet()));
+                loadDone = true;
+                recordLoad(start, loaded != null);
+                for (Map.Entry<K, CompletableFuture<V>> e : owned.entrySet())
+                {
+                    V value = loaded == null ? null : loaded.get(e.getKey());
+                    if (value != null)
+                    {
+                        putLoaded(e.getKey(), null, value, resetCount);
+                        found.put(e.getKey(), value);
+                    }
+                    e.getValue().complete(value);
+                }
+            }
+            catch (RuntimeException | Error ex)
+            {
+                if (!loadDone)
+                    recordLoad(start, false);
+                for (CompletableFuture<V> future : owned.values())
+                    future.completeExceptionally(ex);
+                throw ex;
+            }
+            finally
+            {
+                for (Map.Entry<K, CompletableFuture<V>> e : owned.entrySet())
+                    m_loading.remove(e.getKey(), e.getValue());
+            }
+        }
+
+        for (Map.Entry<K, CompletableFuture<V>> e : waiting.entrySet())
+        {
+            V value = await(e.getValue());
+            if (value != null)
+                found.put(e.getKey(), value);
+        }
+
+        Map<K,V> result = new LinkedHashMap<K,V>();
+        for (K key : keys)
+        {
+            V value = found.get(key);
+            if (value != null)
+                result.put(key, value);
+        }
+        return result;
+    }	//	getAll
+
+    /**
+     * 	Record load statistics
+     *	@param start nano time load started
+     *	@param success true if a value was loaded
+     */
+    private void recordLoad (long start, boolean success)
+    {
+        m_totalLoadTime.add(System.nanoTime() - start);
+        if (success)
+            m_loadSuccessCount.increment();
+        else
+            m_loadFailureCount.increment();
+    }	//	recordLoad
+
+    /**
+     * 	Wait for load of other thread
+     */
+    private static <V> V await (CompletableFuture<V> future)
+    {
+        try
+        {
+            return future.join();
+        }
+        catch (CompletionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        }
+    }	//	await
+
     /**
      * 	Put value
      *	@param key key
-     *	@param value value
+     *	@param value value, null removes the key
      *	@return previous value
      */
     public V put (K key, V value)
     {
-        expire();
-        m_justReset = false;
-        return super.put (key, value);
+        if (value == null)
+        {
+            m_justReset = false;
+            return remove(key);
+        }
+        Node<K,V> node = newNode(key, value);
+        Node<K,V> old = m_cache.put(key, node);
+        schedule(old, node);
+        if (m_policy != null)
+        {
+            if (old != null)
+                m_policy.onRemove(old);
+            m_policy.onAdd(node);
+        }
+        boolean expired = old != null && isExpired(old, node.writeTime);
+        if (old != null)
+            notifyRemoval(old, expired ? RemovalCause.EXPIRED : RemovalCause.REPLACED);
+        afterWrite();
+        return old == null || expired ? null : old.value;
     }	// put
 
+    /**
+     * 	Put value if the key is not cached yet
+     *	@param key key
+     *	@param value value
+     *	@return current value or null if value was added
+     */
+    public V putIfAbsent (K key, V value)
+    {
+        if (value == null)
+            return get(key);
+        return putIfAbsent(newNode(key, value));
+    }	//	putIfAbsent
+
+    /**
+     * 	Restore entry with its original write time unless the key is cached or the entry expired
+     *	@param key key
+     *	@param value value
+     *	@param writeTime time the entry was written
+     *	@return true if added
+     */
+    boolean restore (K key, V value, long writeTime)
+    {
+        if (key == null || value == null)
+            return false;
+        Node<K,V> node = newNode(key, value, writeTime);
+        if (isExpired(node, CacheMgt.nowMillis()))
+            return false;
+        return putIfAbsent(node) == null;
+    }	//	restore
+
+    /**
+     * 	Get Entries with their write times, including expired entries not yet removed
+     *	@return read-only view of the nodes
+     */
+    Collection<Node<K,V>> getNodes()
+    {
+        return Collections.unmodifiableCollection(m_cache.values());
+    }	//	getNodes
+
+    /**
+     * 	Put node if the key is not cached yet
+     *	@return current value or null if node was added
+     */
+    private V putIfAbsent (Node<K,V> node)
+    {
+        K key = node.key;
+        while (true)
+        {
+            Node<K,V> old = m_cache.putIfAbsent(key, node);
+            if (old == null)
+            {
+                schedule(null, node);
+                break;
+            }
+            if (!isExpired(old, CacheMgt.nowMillis()))
+                return old.value;
+            //	replace expired entry
+            if (m_cache.replace(key, old, node))
+            {
+                schedule(old, node);
+                if (m_policy != null)
+                    m_policy.onRemove(old);
+                notifyRemoval(old, RemovalCause.EXPIRED);
+                break;
+            }
+        }
+        if (m_policy != null)
+            m_policy.onAdd(node);
+        afterWrite();
+        return null;
+    }	//	putIfAbsent
+
+    /**
+     * 	Cache loaded value unless the entry was changed or the cache reset since the load started.<br/>
+     * 	A reset counted after the value was added removes it again, as the reset may have missed it.
+     *	@param key key
+     *	@param expected entry read before the load or null if missing
+     *	@param value loaded value
+     *	@param resetCount reset count read before the load
+     */
+    private void putLoaded (K key, Node<K,V> expected, V value, long resetCount)
+    {
+        if (resetCount != m_resetCount.get())
+            return;
+        Node<K,V> node = newNode(key, value);
+        Node<K,V> old = expected;
+        boolean added;
+        if (old == null)
+        {
+            old = m_cache.putIfAbsent(key, node);
+            //	an expired entry counts as missing
+            added = old == null || (isExpired(old, node.writeTime) && m_cache.replace(key, old, node));
+        }
+        else
+            added = m_cache.replace(key, old, node);
+        if (!added)
+            return;
+        schedule(old, node);
+        if (m_policy != null)
+        {
+            if (old != null)
+                m_policy.onRemove(old);
+            m_policy.onAdd(node);
+        }
+        if (old != null)
+            notifyRemoval(old, isExpired(old, node.writeTime) ? RemovalCause.EXPIRED : RemovalCause.REPLACED);
+        afterWrite();
+        if (resetCount != m_resetCount.get() && m_cache.remove(key, node))
+        {
+            schedule(node, null);
+            if (m_policy != null)
+                m_policy.onRemove(node);
+            notifyRemoval(node, RemovalCause.RESET);
+        }
+    }	//	putLoaded
+
     /**
      * 	Put All
      *	@param m map
      */
     public void putAll (Map<? extends K, ? extends V> m)
     {
-        expire();
-        m_justReset = false;
-        super.putAll (m);
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+            put(e.getKey(), e.getValue());
     }	//	putAll
 
     /**
-     *	@see java.util.Map#isEmpty()
+     *	@see java.util.Map#remove(java.lang.Object)
      */
-    public boolean isEmpty()
+    public V remove (Object key)
     {
-        expire();
-        return super.isEmpty();
-    }	// isEmpty
+        Node<K,V> node = removeNode(key, RemovalCause.EXPLICIT);
+        return node == null || isExpired(node, CacheMgt.nowMillis()) ? null : node.value;
+    }	//	remove
 
     /**
-     *	@see java.util.Map#keySet()
+     * 	Remove entry and notify listeners
+     *	@param key key
+     *	@param cause cause reported unless the entry was expired
+     *	@return removed node or null
      */
-    public Set<K> keySet()
+    private Node<K,V> removeNode (Object key, RemovalCause cause)
     {
-        expire();
-        return super.keySet();
-    }	//	keySet
+        if (key == null)
+            return null;
+        Node<K,V> node = m_cache.remove(key);
+        if (node == null)
+            return null;
+        schedule(node, null);
+        if (m_policy != null)
+            m_policy.onRemove(node);
+        if (hasRemovalListeners())
+            notifyRemoval(node, isExpired(node, CacheMgt.nowMillis()) ? RemovalCause.EXPIRED : cause);
+        return node;
+    }	//	removeNode
+
+    /**
+     *	@see java.util.Map#isEmpty()
+     */
+    public boolean isEmpty()
+    {
+        return m_cache.isEmpty();
+    }	// isEmpty
 
     /**
      *	@see java.util.Map#size()
+     *	@return number of entries, may include expired entries not swept yet
      */
     public int size()
     {
-        expire();
-        return super.size();
+        return m_cache.size();
     }	//	size
 
     /**
@@ -244,38 +1111,261 @@ public class CCache<K,V> extends HashMap<K, V> implements ICache {
      */
     public int sizeNoExpire()
     {
-        return super.size();
+        return m_cache.size();
     }	//	size
 
     /**
-     *	@see java.util.Map#values()
+     * 	Create Node for key/value
      */
-    public Collection<V> values()
+    private Node<K,V> newNode (K key, V value)
     {
-        expire();
-        return super.values();
-    }	//	values
+        return newNode(key, value, CacheMgt.nowMillis());
+    }	//	newNode
 
+    /**
+     * 	New Node written at time
+     */
+    private Node<K,V> newNode (K key, V value, long writeTime)
+    {
+        int weight = 1;
+        if (m_weigher != null)
+        {
+            weight = m_weigher.weigh(key, value);
+            if (weight < 0)
+                throw new IllegalArgumentException("Negative weight for " + key);
+        }
+        return new Node<K,V>(key, value, weight, writeTime);
+    }	//	newNode
 
     /**
-     * 	Add Vetoable Change Listener
-     *	@param listener listner
+     * 	Add Removal Listener
+     *	@param listener listener
+     *	@param async true to deliver removals in batches on a background thread,
+     *		false to call the listener on the thread removing the entry
      */
-    public void addVetoableChangeListener (VetoableChangeListener listener)
+    public void addRemovalListener (CacheRemovalListener<? super K, ? super V> listener, boolean async)
     {
-        if (m_changeSupport == null)
-            m_changeSupport = new VetoableChangeSupport (this);
-        if (listener != null)
-            m_changeSupport.addVetoableChangeListener(listener);
-    }	//	addVetoableChangeListener
+        if (listener == null)
+            return;
+        if (async)
+            m_asyncRemovalListeners.add(listener);
+        else
+            m_removalListeners.add(listener);
+    }	//	addRemovalListener
 
     /**
-     * 	Remove Vetoable Change Listener
+     * 	Remove Removal Listener
      *	@param listener listener
      */
-    public void removeVetoableChangeListener (VetoableChangeListener listener)
+    public void removeRemovalListener (CacheRemovalListener<? super K, ? super V> listener)
     {
-        if (m_changeSupport != null && listener != null)
-            m_changeSupport.removeVetoableChangeListener(listener);
-    }	//	removeVetoableChangeListener
+        m_removalListeners.remove(listener);
+        m_asyncRemovalListeners.remove(listener);
+    }	//	removeRemovalListener
+
+    /**
+     * 	Has Removal Listeners
+     *	@return true if removals are reported
+     */
+    private boolean hasRemovalListeners()
+    {
+        return !m_removalListeners.isEmpty() || !m_asyncRemovalListeners.isEmpty();
+    }	//	hasRemovalListeners
+
+    /**
+     * 	Notify listeners of removed entry
+     *	@param node removed entry
+     *	@param cause reason
+     */
+    private void notifyRemoval (Node<K,V> node, RemovalCause cause)
+    {
+        if (!hasRemovalListeners())
+            return;
+        for (CacheRemovalListener<? super K, ? super V> listener : m_removalListeners)
+        {
+            try
+            {
+                listener.onRemoval(node.key, node.value, cause);
+            }
+            catch (RuntimeException e)
+            {
+                log.warn(m_name + ": removal listener failed", e);
+            }
+        }
+        if (m_asyncRemovalListeners.isEmpty())
+            return;
+        m_pendingRemovals.add(new Removal<K,V>(node.key, node.value, cause));
+        if (m_delivering.compareAndSet(false, true))
+            s_executor.execute(this::deliverRemovals);
+    }	//	notifyRemoval
+
+    /**
+     * 	Deliver pending removals to the asynchronous listeners in batches
+     */
+    private void deliverRemovals()
+    {
+        List<Removal<K,V>> batch = new ArrayList<Removal<K,V>>(REMOVAL_BATCH);
+        while (true)
+        {
+            Removal<K,V> removal;
+            while (batch.size() < REMOVAL_BATCH && (removal = m_pendingRemovals.poll()) != null)
+                batch.add(removal);
+            if (batch.isEmpty())
+            {
+                m_delivering.set(false);
+                //	added after the last poll but not scheduled
+                if (m_pendingRemovals.isEmpty() || !m_delivering.compareAndSet(false, true))
+                    return;
+                continue;
+            }
+            for (CacheRemovalListener<? super K, ? super V> listener : m_asyncRemovalListeners)
+            {
+                for (Removal<K,V> r : batch)
+                {
+                    try
+                    {
+                        listener.onRemoval(r.key, r.value, r.cause);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        log.warn(m_name + ": removal listener failed", e);
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }	//	deliverRemovals
+
+    /**
+     *	Cache Entry.<br/>
+     *	Links and queue are maintained by {@link CacheEvictionPolicy} under its lock.
+     */
+    static final class Node<K,V>
+    {
+        final K				key;
+        final V				value;
+        final int			weight;
+        final long			writeTime;
+        volatile long		accessTime;
+
+        Node<K,V>	prev;
+        Node<K,V>	next;
+        int		queue;
+        boolean	linked;
+        boolean	retired;
+        Node<K,V>	timerPrev;
+        Node<K,V>	timerNext;
+
+        Node (K key, V value, int weight, long writeTime)
+        {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = writeTime;
+            this.accessTime = writeTime;
+        }
+
+        boolean isLinked()
+        {
+            return linked;
+        }
+    }	//	Node
+
+    /**
+     *	Entry Set view - writes go through the cache
+     */
+    private final class EntrySet extends AbstractSet<Entry<K,V>>
+    {
+        @Override
+        public Iterator<Entry<K,V>> iterator()
+        {
+            final Iterator<Node<K,V>> it = m_cache.values().iterator();
+            final long now = CacheMgt.nowMillis();
+            return new Iterator<Entry<K,V>>()
+            {
+                private Node<K,V> current = null;
+                private Node<K,V> next = null;
+
+                @Override
+                public boolean hasNext()
+                {
+                    while (next == null && it.hasNext())
+                    {
+                        Node<K,V> node = it.next();
+                        if (!isExpired(node, now))
+                            next = node;
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public Entry<K,V> next()
+                {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    current = next;
+                    next = null;
+                    return new WriteThroughEntry(current.key, current.value);
+                }
+
+                @Override
+                public void remove()
+                {
+                    if (current == null)
+                        throw new IllegalStateException();
+                    CCache.this.remove(current.key);
+                    current = null;
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return m_cache.size();
+        }
+
+        @Override
+        public void clear()
+        {
+            CCache.this.clear();
+        }
+    }	//	EntrySet
+
+    /**
+     *	Removal waiting for delivery
+     */
+    private static final class Removal<K,V>
+    {
+        final K				key;
+        final V				value;
+        final RemovalCause	cause;
+
+        Removal (K key, V value, RemovalCause cause)
+        {
+            this.key = key;
+            this.value = value;
+            this.cause = cause;
+        }
+    }	//	Removal
+
+    /**
+     *	Map Entry - setValue updates the cache
+     */
+    private final class WriteThroughEntry extends SimpleEntry<K,V>
+    {
+        private static final long serialVersionUID = -1672711367521465838L;
+
+        WriteThroughEntry (K key, V value)
+        {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue (V value)
+        {
+            CCache.this.put(getKey(), value);
+            return super.setValue(value);
+        }
+    }	//	WriteThroughEntry
 }
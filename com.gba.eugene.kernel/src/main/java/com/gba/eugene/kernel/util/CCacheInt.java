@@ -0,0 +1,26 @@
+package com.gba.eugene.kernel.util;
+
+/**
+ *	Cache keyed by <code>int</code>, typically a Record_ID.<br/>
+ *	A {@link CCacheLong}: <code>int</code> keys widen to <code>long</code>, so lookups neither
+ *	box the key nor allocate a node per entry.
+ *	@see CCacheLong
+ */
+public class CCacheInt<V> extends CCacheLong<V> {
+
+    public CCacheInt (String name, int initialCapacity)
+    {
+        this (name, initialCapacity, 120);
+    }
+
+    /**
+     * 	Int Cache
+     *	@param name (table) name
+     *	@param initialCapacity initial capacity
+     *	@param expireMinutes expire after minutes or 0
+     */
+    public CCacheInt (String name, int initialCapacity, int expireMinutes)
+    {
+        super (name, initialCapacity, expireMinutes);
+    }	//	CCacheInt
+}	//	CCacheInt
@@ -0,0 +1,620 @@
+package com.gba.eugene.kernel.util;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ *	Cache keyed by <code>long</code>.<br/>
+ *	Keys and values are kept in open addressing arrays (linear probing), so lookups neither
+ *	box the key nor allocate a node per entry. Reads are optimistic and lock-free unless a
+ *	write happens at the same time; writes are serialized by a {@link StampedLock}.<br/>
+ *	Entries expire individually after write; as they are array slots rather than nodes, expired
+ *	entries are removed on read and swept by the maintenance thread of {@link CacheMgt} once a
+ *	minute instead of being scheduled on a timer wheel. Keys are taken as Record_IDs, so
+ *	{@link CacheMgt#reset(String, int)} removes just the entry of the record.<br/>
+ *	The heap used is estimated from the table size and an estimated value size, so
+ *	{@link CacheMgt} can shrink the cache to keep all caches within its heap budget.
+ *	@see CCacheInt
+ */
+public class CCacheLong<V> implements ICache {
+
+    /**	Removed entry marker		*/
+    private static final Object	REMOVED = new Object();
+    /**	Minimum table capacity		*/
+    private static final int	MIN_CAPACITY = 8;
+    /**	Bytes per table slot: key, write time and value reference	*/
+    private static final int	SLOT_BYTES = 20;
+    /**	Default estimated bytes per value	*/
+    public static final int		DEFAULT_VALUE_BYTES = 64;
+    /**	Interval of the sweep of expired entries	*/
+    private static final long	SWEEP_INTERVAL_MS = 60000;
+
+    /**	Table Lock					*/
+    private final StampedLock	m_lock = new StampedLock();
+    /**	Current Table - replaced on resize	*/
+    private Table				m_table;
+    /**	Number of entries			*/
+    private volatile int		m_size = 0;
+    /**	Number of used slots (entries and removed)	*/
+    private int					m_used = 0;
+    /**	Initial Capacity			*/
+    private final int			m_initialCapacity;
+
+    /**	Name						*/
+    private final String		m_name;
+    /** Expire after minutes		*/
+    private volatile int		m_expire = 0;
+    /** Expire after milliseconds	*/
+    private volatile long		m_expireMS = 0;
+    /**	Time of next sweep of expired entries	*/
+    private volatile long		m_nextSweep = 0;
+    /**	Estimated bytes per value	*/
+    private volatile int		m_valueBytes = DEFAULT_VALUE_BYTES;
+
+    /**	Statistics Counters			*/
+    private final LongAdder		m_hitCount = new LongAdder();
+    private final LongAdder		m_missCount = new LongAdder();
+    private final LongAdder		m_expirationCount = new LongAdder();
+    /**	Entries removed by shrink	*/
+    private final LongAdder		m_shrinkCount = new LongAdder();
+
+    public CCacheLong (String name, int initialCapacity)
+    {
+        this (name, initialCapacity, 120);
+    }
+
+    /**
+     * 	Long Cache
+     *	@param name (table) name
+     *	@param initialCapacity initial capacity
+     *	@param expireMinutes expire after minutes or 0
+     */
+    public CCacheLong (String name, int initialCapacity, int expireMinutes)
+    {
+        m_name = name;
+        m_initialCapacity = initialCapacity;
+        m_table = new Table(capacityFor(initialCapacity));
+        setExpireMinutes(expireMinutes);
+        CacheMgt.get().register(this);
+    }	//	CCacheLong
+
+    /**
+     * 	Get (table) Name
+     *	@return name
+     */
+    @Override
+    public String getName()
+    {
+        return m_name;
+    }	//	getName
+
+    /**
+     * 	Set Expire Minutes of each entry
+     *	@param expireMinutes minutes or 0
+     */
+    public void setExpireMinutes (int expireMinutes)
+    {
+        m_expire = Math.max(expireMinutes, 0);
+        m_expireMS = 60000L * m_expire;
+        if (m_expireMS != 0)
+            CacheMgt.get().startMaintenance();
+    }	//	setExpireMinutes
+
+    /**
+     * 	Get Expire Minutes
+     *	@return expire minutes
+     */
+    public int getExpireMinutes()
+    {
+        return m_expire;
+    }	//	getExpireMinutes
+
+    /**
+     * 	Set Estimated Bytes per value, for the heap budget
+     *	@param valueBytes bytes of a value with the objects it references
+     */
+    public void setEstimatedValueBytes (int valueBytes)
+    {
+        m_valueBytes = Math.max(0, valueBytes);
+    }	//	setEstimatedValueBytes
+
+    /**
+     * 	Get Estimated Bytes per value
+     *	@return bytes
+     */
+    public int getEstimatedValueBytes()
+    {
+        return m_valueBytes;
+    }	//	getEstimatedValueBytes
+
+    /**
+     * 	Get value
+     *	@param key key
+     *	@return value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get (long key)
+    {
+        Object value = null;
+        long writeTime = 0;
+        long stamp = m_lock.tryOptimisticRead();
+        Table table = m_table;
+        int index = table.indexOf(key);
+        if (index >= 0)
+        {
+            value = table.values[index];
+            writeTime = table.writeTimes[index];
+        }
+        if (!m_lock.validate(stamp))
+        {
+            value = null;
+            stamp = m_lock.readLock();
+            try
+            {
+                table = m_table;
+                index = table.indexOf(key);
+                if (index >= 0)
+                {
+                    value = table.values[index];
+                    writeTime = table.writeTimes[index];
+                }
+            }
+            finally
+            {
+                m_lock.unlockRead(stamp);
+            }
+        }
+        if (value == null || value == REMOVED)
+        {
+            m_missCount.increment();
+            return null;
+        }
+        if (isExpired(writeTime, CacheMgt.nowMillis()))
+        {
+            expire(key, value);
+            m_missCount.increment();
+            return null;
+        }
+        m_hitCount.increment();
+        return (V) value;
+    }	//	get
+
+    /**
+     * 	Contains Key
+     *	@param key key
+     *	@return true if cached and not expired
+     */
+    public boolean containsKey (long key)
+    {
+        long stamp = m_lock.readLock();
+        try
+        {
+            Table table = m_table;
+            int index = table.indexOf(key);
+            return index >= 0 && !isExpired(table.writeTimes[index], CacheMgt.nowMillis());
+        }
+        finally
+        {
+            m_lock.unlockRead(stamp);
+        }
+    }	//	containsKey
+
+    /**
+     * 	Put value
+     *	@param key key
+     *	@param value value, null removes the key
+     *	@return previous value or null
+     */
+    public V put (long key, V value)
+    {
+        if (value == null)
+            return remove(key);
+        long stamp = m_lock.writeLock();
+        try
+        {
+            return store(key, value, true);
+        }
+        finally
+        {
+            m_lock.unlockWrite(stamp);
+        }
+    }	//	put
+
+    /**
+     * 	Put value if key is not cached (or expired)
+     *	@param key key
+     *	@param value value, not null
+     *	@return cached value or null if added
+     */
+    public V putIfAbsent (long key, V value)
+    {
+        if (value == null)
+            throw new NullPointerException();
+        long stamp = m_lock.writeLock();
+        try
+        {
+            return store(key, value, false);
+        }
+        finally
+        {
+            m_lock.unlockWrite(stamp);
+        }
+    }	//	putIfAbsent
+
+    /**
+     * 	Remove
+     *	@param key key
+     *	@return removed value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove (long key)
+    {
+        long stamp = m_lock.writeLock();
+        try
+        {
+            Table table = m_table;
+            int index = table.indexOf(key);
+            if (index < 0)
+                return null;
+            Object old = table.values[index];
+            boolean expired = isExpired(table.writeTimes[index], CacheMgt.nowMillis());
+            table.values[index] = REMOVED;
+            m_size--;
+            return expired ? null : (V) old;
+        }
+        finally
+        {
+            m_lock.unlockWrite(stamp);
+        }
+    }	//	remove
+
+    /**
+     * 	Number of entries, including expired entries not yet removed
+     *	@return size
+     */
+    @Override
+    public int size()
+    {
+        return m_size;
+    }	//	size
+
+    /**
+     * 	Is Empty
+     *	@return true if no entries
+     */
+    public boolean isEmpty()
+    {
+        return m_size == 0;
+    }	//	isEmpty
+
+    /**
+     * 	Clear cache
+     */
+    public void clear()
+    {
+        long stamp = m_lock.writeLock();
+        try
+        {
+            m_table = new Table(capacityFor(m_initialCapacity));
+            m_size = 0;
+            m_used = 0;
+        }
+        finally
+        {
+            m_lock.unlockWrite(stamp);
+        }
+    }	//	clear
+
+    /**
+     *	Reset Cache
+     * 	@return number of items cleared
+     */
+    @Override
+    public int reset()
+    {
+        int no = m_size;
+        clear();
+        return no;
+    }	//	reset
+
+    /**
+     *	Reset entry of record
+     *	@param Record_ID record (key)
+     * 	@return number of items cleared
+     */
+    @Override
+    public int reset (int Record_ID)
+    {
+        if (Record_ID <= 0)
+            return reset();
+        return remove((long) Record_ID) != null ? 1 : 0;
+    }	//	reset
+
+    /**
+     * 	Remove all expired entries
+     *	@return number of entries removed
+     */
+    public int cleanUp()
+    {
+        if (m_expireMS == 0)
+            return 0;
+        long now = CacheMgt.nowMillis();
+        int no = 0;
+        long stamp = m_lock.writeLock();
+        try
+        {
+            Table table = m_table;
+            for (int i = 0; i < table.values.length; i++)
+            {
+                Object value = table.values[i];
+                if (value != null && value != REMOVED && isExpired(table.writeTimes[i], now))
+                {
+                    table.values[i] = REMOVED;
+                    m_size--;
+                    no++;
+                }
+            }
+        }
+        finally
+        {
+            m_lock.unlockWrite(stamp);
+        }
+        m_expirationCount.add(no);
+        return no;
+    }	//	cleanUp
+
+    /**
+     * 	Remove expired entries, at most once per sweep interval - called by the maintenance thread
+     *	@param now current time
+     *	@return number of entries removed
+     */
+    int expireEntries (long now)
+    {
+        if (m_expireMS == 0 || now < m_nextSweep)
+            return 0;
+        m_nextSweep = now + SWEEP_INTERVAL_MS;
+        return cleanUp();
+    }	//	expireEntries
+
+    /**
+     * 	Get estimated Heap used by table and values
+     *	@return bytes
+     */
+    @Override
+    public long estimatedBytes()
+    {
+        return (long) m_table.values.length * SLOT_BYTES + (long) m_size * m_valueBytes;
+    }	//	estimatedBytes
+
+    /**
+     * 	Remove entries to free heap, expired entries first, and shrink the table
+     *	@param bytes estimated bytes to free
+     *	@return estimated bytes freed
+     */
+    @Override
+    public long shrink (long bytes)
+    {
+        long before = estimatedBytes();
+        cleanUp();
+        long stamp = m_lock.writeLock();
+        try
+        {
+            Table table = m_table;
+            long freed = before - estimatedBytes();
+            int removed = 0;
+            for (int i = 0; i < table.values.length && freed < bytes; i++)
+            {
+                Object value = table.values[i];
+                if (value == null || value == REMOVED)
+                    continue;
+                table.values[i] = REMOVED;
+                m_size--;
+                removed++;
+                //	each entry also frees about two slots once the table shrinks
+                freed += m_valueBytes + 2 * SLOT_BYTES;
+            }
+            m_shrinkCount.add(removed);
+            int capacity = capacityFor(Math.max(m_size, m_initialCapacity));
+            if (capacity < table.values.length)
+                rehash(table, capacity);
+        }
+        finally
+        {
+            m_lock.unlockWrite(stamp);
+        }
+        return Math.max(0, before - estimatedBytes());
+    }	//	shrink
+
+    /**
+     * 	Get Statistics
+     *	@return snapshot of counters
+     */
+    @Override
+    public CacheStats getStats()
+    {
+        return new CacheStats(m_name, m_size,
+                m_hitCount.sum(), m_missCount.sum(), 0, 0, 0,
+                m_shrinkCount.sum(), m_expirationCount.sum());
+    }	//	getStats
+
+    /**
+     * 	Store value - called with write lock held
+     *	@param replace replace existing value
+     *	@return previous (not expired) value or null
+     */
+    @SuppressWarnings("unchecked")
+    private V store (long key, V value, boolean replace)
+    {
+        long now = CacheMgt.nowMillis();
+        Table table = m_table;
+        int index = table.indexOf(key);
+        if (index >= 0)
+        {
+            Object old = table.values[index];
+            boolean expired = isExpired(table.writeTimes[index], now);
+            if (!replace && !expired)
+                return (V) old;
+            table.values[index] = value;
+            table.writeTimes[index] = now;
+            return expired ? null : (V) old;
+        }
+        if (m_used + 1 > table.values.length / 2)
+        {
+            table = resize(table);
+        }
+        int slot = table.slotFor(key);
+        if (table.values[slot] == null)
+            m_used++;
+        table.keys[slot] = key;
+        table.writeTimes[slot] = now;
+        table.values[slot] = value;
+        m_size++;
+        return null;
+    }	//	store
+
+    /**
+     * 	Rehash into new table, dropping removed entries - called with write lock held
+     *	@return new table
+     */
+    private Table resize (Table old)
+    {
+        int capacity = old.values.length;
+        //	grow only if mostly live entries, otherwise just purge removed
+        if (m_size + 1 > capacity / 4)
+            capacity *= 2;
+        return rehash(old, capacity);
+    }	//	resize
+
+    /**
+     * 	Rehash live entries into new table of capacity - called with write lock held
+     *	@return new table
+     */
+    private Table rehash (Table old, int capacity)
+    {
+        Table table = new Table(capacity);
+        for (int i = 0; i < old.values.length; i++)
+        {
+            Object value = old.values[i];
+            if (value == null || value == REMOVED)
+                continue;
+            int slot = table.slotFor(old.keys[i]);
+            table.keys[slot] = old.keys[i];
+            table.writeTimes[slot] = old.writeTimes[i];
+            table.values[slot] = value;
+        }
+        m_table = table;
+        m_used = m_size;
+        return table;
+    }	//	rehash
+
+    private boolean isExpired (long writeTime, long now)
+    {
+        long expireMS = m_expireMS;
+        return expireMS != 0 && now - writeTime >= expireMS;
+    }	//	isExpired
+
+    /**
+     * 	Remove expired entry if not replaced meanwhile
+     */
+    private void expire (long key, Object value)
+    {
+        long stamp = m_lock.writeLock();
+        try
+        {
+            Table table = m_table;
+            int index = table.indexOf(key);
+            if (index < 0 || table.values[index] != value
+                || !isExpired(table.writeTimes[index], CacheMgt.nowMillis()))
+                return;
+            table.values[index] = REMOVED;
+            m_size--;
+        }
+        finally
+        {
+            m_lock.unlockWrite(stamp);
+        }
+        m_expirationCount.increment();
+    }	//	expire
+
+    /**
+     * 	Table capacity (power of 2) for expected entries at 50% load
+     */
+    private static int capacityFor (int expected)
+    {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expected * 2 && capacity < (1 << 30))
+            capacity <<= 1;
+        return capacity;
+    }	//	capacityFor
+
+    /**
+     * 	String Representation
+     * 	@return info
+     */
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + "[" + m_name
+                + ",Exp=" + getExpireMinutes()
+                + ", #" + m_size + "]";
+    }	//	toString
+
+    /**
+     *	Open addressing table
+     */
+    private static final class Table
+    {
+        final long[]	keys;
+        final Object[]	values;
+        final long[]	writeTimes;
+        final int		mask;
+
+        Table (int capacity)
+        {
+            keys = new long[capacity];
+            values = new Object[capacity];
+            writeTimes = new long[capacity];
+            mask = capacity - 1;
+        }
+
+        /**
+         * 	Find slot of key
+         *	@return index or -1
+         */
+        int indexOf (long key)
+        {
+            int i = hash(key) & mask;
+            for (int n = 0; n <= mask; n++)
+            {
+                Object value = values[i];
+                if (value == null)
+                    return -1;
+                if (value != REMOVED && keys[i] == key)
+                    return i;
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * 	Find free or removed slot for key not in table
+         *	@return index
+         */
+        int slotFor (long key)
+        {
+            int i = hash(key) & mask;
+            while (values[i] != null && values[i] != REMOVED)
+                i = (i + 1) & mask;
+            return i;
+        }
+
+        /**
+         * 	Spread sequential IDs over the table
+         */
+        private static int hash (long key)
+        {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }	//	Table
+}	//	CCacheLong
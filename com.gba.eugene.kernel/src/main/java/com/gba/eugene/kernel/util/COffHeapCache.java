@@ -0,0 +1,625 @@
+package com.gba.eugene.kernel.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ *	Cache storing its values outside the Java heap, for large read-mostly tables.<br/>
+ *	Values are serialized with a {@link CacheSerializer} into direct {@link ByteBuffer} slabs.
+ *	Only the keys and a small locator per entry stay on the heap, so millions of entries add
+ *	little GC work. Reads are lock-free; writes append to the current slab under a lock.<br/>
+ *	Slabs are append only: replaced and removed values become garbage that is reclaimed by
+ *	compacting the live values into new slabs once more than half of the memory is garbage.
+ *	If the cache reaches its maximum size, the entries of the oldest slab are evicted; each slab
+ *	lists the keys written to it, so eviction does not scan the index.<br/>
+ *	Registers with {@link CacheMgt} like {@link CCache}, with the same per-entry expiry
+ *	(after write) and Record_ID semantics. It is not a {@link CCache}, so a cache moved off heap
+ *	is declared as this class (or as {@link Map}) where it is created.
+ */
+public class COffHeapCache<K,V> extends AbstractMap<K,V> implements ICache {
+
+    private static final Logger log = LoggerFactory.getLogger(COffHeapCache.class);
+
+    /**	Default Slab Size 16 MB		*/
+    public static final int		DEFAULT_SLAB_SIZE = 16 * 1024 * 1024;
+
+    /**	Value locations				*/
+    private final ConcurrentHashMap<K, Loc> m_index;
+    /**	Value Serializer			*/
+    private final CacheSerializer<V> m_serializer;
+    /**	Write Lock - slabs and memory accounting	*/
+    private final ReentrantLock	m_lock = new ReentrantLock();
+    /**	Slabs, oldest first			*/
+    private final ArrayDeque<Slab<K>> m_slabs = new ArrayDeque<Slab<K>>();
+    /**	Current Slab				*/
+    private Slab<K>				m_slab = null;
+    /**	Write position in current slab	*/
+    private int					m_writePos = 0;
+    /**	Bytes allocated in slabs	*/
+    private volatile long		m_allocated = 0;
+    /**	Bytes of replaced/removed values	*/
+    private long				m_garbage = 0;
+
+    /**	Name						*/
+    private final String		m_name;
+    /**	Slab Size					*/
+    private final int			m_slabSize;
+    /**	Max bytes off heap			*/
+    private final long			m_maxBytes;
+    /** Expire after minutes		*/
+    private volatile int		m_expire = 0;
+    /** Expire after milliseconds	*/
+    private volatile long		m_expireMS = 0;
+    /**	Key to Record_ID - null if unknown	*/
+    private volatile ToIntFunction<? super K> m_recordIdMapper = null;
+
+    /**	Statistics Counters			*/
+    private final LongAdder		m_hitCount = new LongAdder();
+    private final LongAdder		m_missCount = new LongAdder();
+    private final LongAdder		m_evictionCount = new LongAdder();
+    private final LongAdder		m_expirationCount = new LongAdder();
+
+    /**
+     * 	Off-Heap Cache
+     *	@param name (table) name
+     *	@param initialCapacity initial capacity
+     *	@param expireMinutes expire after minutes or 0
+     *	@param maxBytes maximum bytes of values off heap
+     *	@param serializer value serializer
+     */
+    public COffHeapCache (String name, int initialCapacity, int expireMinutes, long maxBytes, CacheSerializer<V> serializer)
+    {
+        this (name, initialCapacity, expireMinutes, maxBytes, serializer, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * 	Off-Heap Cache
+     *	@param name (table) name
+     *	@param initialCapacity initial capacity
+     *	@param expireMinutes expire after minutes or 0
+     *	@param maxBytes maximum bytes of values off heap
+     *	@param serializer value serializer
+     *	@param slabSize bytes allocated at once
+     */
+    public COffHeapCache (String name, int initialCapacity, int expireMinutes, long maxBytes, CacheSerializer<V> serializer, int slabSize)
+    {
+        if (serializer == null)
+            throw new IllegalArgumentException("No Serializer");
+        if (slabSize <= 0 || maxBytes < slabSize)
+            throw new IllegalArgumentException("Invalid size - maxBytes=" + maxBytes + ", slabSize=" + slabSize);
+        m_index = new ConcurrentHashMap<K, Loc>(initialCapacity);
+        m_name = name;
+        m_serializer = serializer;
+        m_maxBytes = maxBytes;
+        m_slabSize = slabSize;
+        setExpireMinutes(expireMinutes);
+        CacheMgt.get().register(this);
+    }	//	COffHeapCache
+
+    /**
+     * 	Get (table) Name
+     *	@return name
+     */
+    @Override
+    public String getName()
+    {
+        return m_name;
+    }	//	getName
+
+    /**
+     * 	Set Expire Minutes of each entry
+     *	@param expireMinutes minutes or 0
+     */
+    public void setExpireMinutes (int expireMinutes)
+    {
+        m_expire = Math.max(expireMinutes, 0);
+        m_expireMS = 60000L * m_expire;
+    }	//	setExpireMinutes
+
+    /**
+     * 	Get Expire Minutes
+     *	@return expire minutes
+     */
+    public int getExpireMinutes()
+    {
+        return m_expire;
+    }	//	getExpireMinutes
+
+    /**
+     * 	Set Record ID Mapper
+     *	@param recordIdMapper returns the Record_ID of a key, null to reset all entries on any change
+     *	@see CCache#setRecordIdMapper(ToIntFunction)
+     */
+    public void setRecordIdMapper (ToIntFunction<? super K> recordIdMapper)
+    {
+        m_recordIdMapper = recordIdMapper;
+    }	//	setRecordIdMapper
+
+    /**
+     * 	Get Bytes allocated off heap
+     *	@return bytes
+     */
+    public long getOffHeapBytes()
+    {
+        return m_allocated;
+    }	//	getOffHeapBytes
+
+    /**
+     *	@see java.util.Map#get(java.lang.Object)
+     */
+    @Override
+    public V get (Object key)
+    {
+        Loc loc = getLoc(key);
+        if (loc == null)
+        {
+            m_missCount.increment();
+            return null;
+        }
+        m_hitCount.increment();
+        return read(loc);
+    }	//	get
+
+    /**
+     *	@see java.util.Map#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey (Object key)
+    {
+        return getLoc(key) != null;
+    }	//	containsKey
+
+    /**
+     * 	Put value
+     *	@param key key
+     *	@param value value, null removes the key
+     *	@return previous value or null, deserialized from its slab
+     */
+    @Override
+    public V put (K key, V value)
+    {
+        if (value == null)
+            return remove(key);
+        byte[] data = m_serializer.serialize(value);
+        if (data.length > m_maxBytes)
+        {
+            log.warn(m_name + ": value of " + data.length + " bytes exceeds maximum - not cached");
+            return remove(key);
+        }
+        Loc old;
+        m_lock.lock();
+        try
+        {
+            ensureCapacity(data.length);
+            m_slab.buffer.put(m_writePos, data);
+            Loc loc = new Loc(m_slab.buffer, m_writePos, data.length, System.currentTimeMillis());
+            m_writePos += data.length;
+            m_slab.keys.add(key);
+            old = m_index.put(key, loc);
+            if (old != null)
+                m_garbage += old.length;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+        return previous(old);
+    }	//	put
+
+    /**
+     * 	Remove
+     *	@param key key
+     *	@return previous value or null, deserialized from its slab
+     */
+    @Override
+    public V remove (Object key)
+    {
+        return previous(removeLoc(key));
+    }	//	remove
+
+    /**
+     * 	Remove without reading the value
+     *	@return removed location or null
+     */
+    private Loc removeLoc (Object key)
+    {
+        if (key == null)
+            return null;
+        m_lock.lock();
+        try
+        {
+            Loc old = m_index.remove(key);
+            if (old != null)
+                m_garbage += old.length;
+            return old;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }	//	removeLoc
+
+    /**
+     *	@see java.util.Map#size()
+     */
+    @Override
+    public int size()
+    {
+        return m_index.size();
+    }	//	size
+
+    /**
+     *	@see java.util.Map#isEmpty()
+     */
+    @Override
+    public boolean isEmpty()
+    {
+        return m_index.isEmpty();
+    }	//	isEmpty
+
+    /**
+     * 	Clear cache and release slabs
+     */
+    @Override
+    public void clear()
+    {
+        m_lock.lock();
+        try
+        {
+            m_index.clear();
+            m_slabs.clear();
+            m_slab = null;
+            m_writePos = 0;
+            m_allocated = 0;
+            m_garbage = 0;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }	//	clear
+
+    /**
+     *	Reset Cache
+     * 	@return number of items cleared
+     */
+    @Override
+    public int reset()
+    {
+        int no = m_index.size();
+        clear();
+        return no;
+    }	//	reset
+
+    /**
+     *	Reset entries of record
+     *	@param Record_ID record
+     * 	@return number of items cleared
+     */
+    @Override
+    public int reset (int Record_ID)
+    {
+        ToIntFunction<? super K> mapper = m_recordIdMapper;
+        if (mapper == null || Record_ID <= 0)
+            return reset();
+        int no = 0;
+        for (K key : m_index.keySet())
+        {
+            if (mapper.applyAsInt(key) == Record_ID && removeLoc(key) != null)
+                no++;
+        }
+        return no;
+    }	//	reset
+
+    /**
+     * 	Get Statistics
+     *	@return snapshot of counters
+     */
+    @Override
+    public CacheStats getStats()
+    {
+        return new CacheStats(m_name, m_index.size(),
+                m_hitCount.sum(), m_missCount.sum(), 0, 0, 0,
+                m_evictionCount.sum(), m_expirationCount.sum());
+    }	//	getStats
+
+    /**
+     * 	Remove all expired entries
+     *	@return number of entries removed
+     */
+    public int cleanUp()
+    {
+        if (m_expireMS == 0)
+            return 0;
+        long now = System.currentTimeMillis();
+        int no = 0;
+        for (Map.Entry<K, Loc> e : m_index.entrySet())
+        {
+            if (isExpired(e.getValue(), now) && expire(e.getKey(), e.getValue()))
+                no++;
+        }
+        return no;
+    }	//	cleanUp
+
+    /**
+     *	@see java.util.Map#entrySet()
+     */
+    @Override
+    public Set<Entry<K,V>> entrySet()
+    {
+        return new EntrySet();
+    }	//	entrySet
+
+    /**
+     * 	Get live location - expired entries are removed
+     */
+    private Loc getLoc (Object key)
+    {
+        if (key == null)
+            return null;
+        Loc loc = m_index.get(key);
+        if (loc != null && isExpired(loc, System.currentTimeMillis()))
+        {
+            expire(key, loc);
+            return null;
+        }
+        return loc;
+    }	//	getLoc
+
+    /**
+     * 	Read value at location
+     */
+    private V read (Loc loc)
+    {
+        byte[] data = new byte[loc.length];
+        loc.slab.get(loc.offset, data, 0, loc.length);
+        return m_serializer.deserialize(data);
+    }	//	read
+
+    /**
+     * 	Previous value of a replaced or removed location - slabs are not overwritten
+     */
+    private V previous (Loc old)
+    {
+        if (old == null || isExpired(old, System.currentTimeMillis()))
+            return null;
+        return read(old);
+    }	//	previous
+
+    private boolean isExpired (Loc loc, long now)
+    {
+        long expireMS = m_expireMS;
+        return expireMS != 0 && now - loc.writeTime >= expireMS;
+    }	//	isExpired
+
+    /**
+     * 	Remove expired entry if not replaced meanwhile
+     */
+    private boolean expire (Object key, Loc loc)
+    {
+        m_lock.lock();
+        try
+        {
+            if (!m_index.remove(key, loc))
+                return false;
+            m_garbage += loc.length;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+        m_expirationCount.increment();
+        return true;
+    }	//	expire
+
+    /**
+     * 	Make room for length bytes in current slab - called with lock held
+     */
+    private void ensureCapacity (int length)
+    {
+        if (m_slab != null && m_writePos + length <= m_slab.buffer.capacity())
+            return;
+        int size = Math.max(m_slabSize, length);
+        if (m_allocated + size > m_maxBytes && m_garbage > m_allocated / 2)
+            compact(length);
+        if (m_slab != null && m_writePos + length <= m_slab.buffer.capacity())
+            return;
+        while (m_allocated + size > m_maxBytes && !m_slabs.isEmpty())
+            evictOldestSlab();
+        newSlab(size);
+    }	//	ensureCapacity
+
+    /**
+     * 	Allocate new current slab - called with lock held
+     */
+    private void newSlab (int size)
+    {
+        m_slab = new Slab<K>(ByteBuffer.allocateDirect(size));
+        m_slabs.addLast(m_slab);
+        m_writePos = 0;
+        m_allocated += size;
+    }	//	newSlab
+
+    /**
+     * 	Copy live values into new slabs - called with lock held.<br/>
+     * 	Readers keep reading the old slabs until they see the new locations.
+     */
+    private void compact (int reserve)
+    {
+        long start = System.currentTimeMillis();
+        long live = m_allocated - m_garbage;
+        m_slabs.clear();
+        m_slab = null;
+        m_writePos = 0;
+        m_allocated = 0;
+        m_garbage = 0;
+        long now = System.currentTimeMillis();
+        int moved = 0;
+        for (Map.Entry<K, Loc> e : m_index.entrySet())
+        {
+            Loc loc = e.getValue();
+            if (isExpired(loc, now))
+            {
+                if (m_index.remove(e.getKey(), loc))
+                    m_expirationCount.increment();
+                continue;
+            }
+            if (m_slab == null || m_writePos + loc.length > m_slab.buffer.capacity())
+                newSlab(Math.max(m_slabSize, loc.length));
+            byte[] data = new byte[loc.length];
+            loc.slab.get(loc.offset, data, 0, loc.length);
+            m_slab.buffer.put(m_writePos, data);
+            //	writes are blocked by the lock, only removals can interfere
+            if (m_index.replace(e.getKey(), loc, new Loc(m_slab.buffer, m_writePos, loc.length, loc.writeTime)))
+            {
+                m_slab.keys.add(e.getKey());
+                moved++;
+            }
+            m_writePos += loc.length;
+        }
+        if (log.isDebugEnabled()) log.debug(m_name + ": compacted " + moved + " entries, " + live + " -> " + m_allocated
+                + " bytes in " + (System.currentTimeMillis() - start) + "ms (reserve " + reserve + ")");
+    }	//	compact
+
+    /**
+     * 	Evict entries of oldest slab - called with lock held.<br/>
+     * 	Keys replaced or removed since written to the slab point elsewhere and are skipped.
+     */
+    private void evictOldestSlab()
+    {
+        Slab<K> oldest = m_slabs.pollFirst();
+        if (oldest == m_slab)
+        {
+            m_slab = null;
+            m_writePos = 0;
+        }
+        long freed = 0;
+        for (K key : oldest.keys)
+        {
+            Loc loc = m_index.get(key);
+            if (loc != null && loc.slab == oldest.buffer && m_index.remove(key, loc))
+            {
+                m_evictionCount.increment();
+                freed += loc.length;
+            }
+        }
+        m_allocated -= oldest.buffer.capacity();
+        //	garbage of the slab is gone with it
+        m_garbage = Math.max(0, m_garbage - (oldest.buffer.capacity() - freed));
+    }	//	evictOldestSlab
+
+    /**
+     * 	String Representation
+     * 	@return info
+     */
+    @Override
+    public String toString()
+    {
+        return "COffHeapCache[" + m_name
+                + ",Exp=" + getExpireMinutes()
+                + ",Bytes=" + m_allocated + "/" + m_maxBytes
+                + ", #" + m_index.size() + "]";
+    }	//	toString
+
+    /**
+     *	Location of a value; slab buffers are never overwritten, so readers need no lock
+     */
+    private static final class Loc
+    {
+        final ByteBuffer	slab;
+        final int			offset;
+        final int			length;
+        final long			writeTime;
+
+        Loc (ByteBuffer slab, int offset, int length, long writeTime)
+        {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+            this.writeTime = writeTime;
+        }
+    }	//	Loc
+
+    /**
+     *	Slab buffer with the keys written to it, including keys since replaced or removed
+     */
+    private static final class Slab<K>
+    {
+        final ByteBuffer	buffer;
+        final ArrayList<K>	keys = new ArrayList<K>();
+
+        Slab (ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+    }	//	Slab
+
+    /**
+     *	Entry Set view - values are deserialized while iterating
+     */
+    private final class EntrySet extends AbstractSet<Entry<K,V>>
+    {
+        @Override
+        public Iterator<Entry<K,V>> iterator()
+        {
+            final Iterator<Map.Entry<K, Loc>> it = m_index.entrySet().iterator();
+            final long now = System.currentTimeMillis();
+            return new Iterator<Entry<K,V>>()
+            {
+                private Map.Entry<K, Loc> current = null;
+                private Map.Entry<K, Loc> next = null;
+
+                @Override
+                public boolean hasNext()
+                {
+                    while (next == null && it.hasNext())
+                    {
+                        Map.Entry<K, Loc> e = it.next();
+                        if (!isExpired(e.getValue(), now))
+                            next = e;
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public Entry<K,V> next()
+                {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    current = next;
+                    next = null;
+                    return new SimpleImmutableEntry<K,V>(current.getKey(), read(current.getValue()));
+                }
+
+                @Override
+                public void remove()
+                {
+                    if (current == null)
+                        throw new IllegalStateException();
+                    removeLoc(current.getKey());
+                    current = null;
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return m_index.size();
+        }
+    }	//	EntrySet
+}	//	COffHeapCache
@@ -0,0 +1,442 @@
+package com.gba.eugene.kernel.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ *	Size based eviction policy of a bounded {@link CCache} (W-TinyLFU).<br/>
+ *	New entries enter a small LRU admission window. Entries leaving the window compete with
+ *	the least recently used entry of the main space, and the one requested less often
+ *	according to the {@link FrequencySketch} is evicted. The main space is a segmented LRU:
+ *	entries hit again while on probation are promoted to the protected segment.<br/>
+ *	Reads are recorded only when the policy lock is free, so a contended read never waits.
+ *	Evicted entries are collected under the lock and handed on after it is released, so
+ *	removal listeners may write to the cache.
+ */
+final class CacheEvictionPolicy<K,V> {
+
+    /** Queue: admission window		*/
+    static final int	WINDOW = 0;
+    /** Queue: main probation		*/
+    static final int	PROBATION = 1;
+    /** Queue: main protected		*/
+    static final int	PROTECTED = 2;
+
+    /**	Policy Lock					*/
+    private final ReentrantLock m_lock = new ReentrantLock();
+    /**	Cache Map to evict from		*/
+    private final ConcurrentHashMap<K, CCache.Node<K,V>> m_map;
+    /**	Popularity of keys			*/
+    private final FrequencySketch m_sketch;
+    /**	Called for evicted entries	*/
+    private final Consumer<CCache.Node<K,V>> m_onEvict;
+
+    /**	Maximum weight of cache		*/
+    private final long	m_maximum;
+    /**	Maximum weight of window	*/
+    private final long	m_windowMaximum;
+    /**	Maximum weight protected	*/
+    private final long	m_protectedMaximum;
+
+    /**	Weight of all entries		*/
+    private long		m_weightedSize = 0;
+    /**	Weight of window entries	*/
+    private long		m_windowWeight = 0;
+    /**	Weight of protected entries	*/
+    private long		m_protectedWeight = 0;
+    /**	Evicted entries				*/
+    private volatile long	m_evictionCount = 0;
+    /**	Evicted entries not yet handed on - guarded by lock	*/
+    private List<CCache.Node<K,V>>	m_evicted = new ArrayList<CCache.Node<K,V>>();
+
+    private final NodeList<K,V>	m_window = new NodeList<K,V>();
+    private final NodeList<K,V>	m_probation = new NodeList<K,V>();
+    private final NodeList<K,V>	m_protected = new NodeList<K,V>();
+
+    /**
+     * 	Policy Constructor
+     *	@param map cache map
+     *	@param maximum maximum weight (or entry count) of cache
+     *	@param expectedSize expected number of entries
+     *	@param onEvict called for each evicted entry, with the policy unlocked
+     */
+    CacheEvictionPolicy (ConcurrentHashMap<K, CCache.Node<K,V>> map, long maximum, long expectedSize,
+            Consumer<CCache.Node<K,V>> onEvict)
+    {
+        m_map = map;
+        m_onEvict = onEvict;
+        m_maximum = maximum;
+        m_windowMaximum = Math.max(1, maximum / 100);
+        m_protectedMaximum = (maximum - m_windowMaximum) * 8 / 10;
+        m_sketch = new FrequencySketch(expectedSize);
+    }	//	CacheEvictionPolicy
+
+    /**
+     * 	Get Maximum Weight
+     *	@return maximum
+     */
+    long getMaximum()
+    {
+        return m_maximum;
+    }	//	getMaximum
+
+    /**
+     * 	Get Weight of all entries
+     *	@return weighted size
+     */
+    long getWeightedSize()
+    {
+        m_lock.lock();
+        try
+        {
+            return m_weightedSize;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }	//	getWeightedSize
+
+    /**
+     * 	Get Number of evicted entries
+     *	@return eviction count
+     */
+    long getEvictionCount()
+    {
+        return m_evictionCount;
+    }	//	getEvictionCount
+
+    /**
+     * 	Entry was added to the map
+     *	@param node new node
+     */
+    void onAdd (CCache.Node<K,V> node)
+    {
+        List<CCache.Node<K,V>> evicted;
+        m_lock.lock();
+        try
+        {
+            if (node.retired)
+                return;
+            m_sketch.increment(node.key);
+            if (node.weight > m_maximum)
+            {
+                evictNode(node);
+            }
+            else
+            {
+                node.queue = WINDOW;
+                m_window.addLast(node);
+                m_windowWeight += node.weight;
+                m_weightedSize += node.weight;
+                evict();
+            }
+            evicted = takeEvicted();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+        deliver(evicted);
+    }	//	onAdd
+
+    /**
+     * 	Entry was read - skipped if the policy is busy
+     *	@param node node
+     */
+    void onAccess (CCache.Node<K,V> node)
+    {
+        if (!m_lock.tryLock())
+            return;
+        try
+        {
+            m_sketch.increment(node.key);
+            if (node.retired || !node.isLinked())
+                return;
+            if (node.queue == WINDOW)
+            {
+                m_window.moveToLast(node);
+            }
+            else if (node.queue == PROBATION)
+            {
+                m_probation.remove(node);
+                node.queue = PROTECTED;
+                m_protected.addLast(node);
+                m_protectedWeight += node.weight;
+                //	demote overflow
+                while (m_protectedWeight > m_protectedMaximum)
+                {
+                    CCache.Node<K,V> demoted = m_protected.pollFirst();
+                    if (demoted == null)
+                        break;
+                    m_protectedWeight -= demoted.weight;
+                    demoted.queue = PROBATION;
+                    m_probation.addLast(demoted);
+                }
+            }
+            else
+            {
+                m_protected.moveToLast(node);
+            }
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }	//	onAccess
+
+    /**
+     * 	Entry was removed from the map
+     *	@param node removed node
+     */
+    void onRemove (CCache.Node<K,V> node)
+    {
+        m_lock.lock();
+        try
+        {
+            if (node.retired)
+                return;
+            node.retired = true;
+            unlink(node);
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }	//	onRemove
+
+    /**
+     * 	Clear map and policy
+     */
+    void clear()
+    {
+        m_lock.lock();
+        try
+        {
+            m_map.clear();
+            for (NodeList<K,V> list : List.of(m_window, m_probation, m_protected))
+            {
+                CCache.Node<K,V> node;
+                while ((node = list.pollFirst()) != null)
+                    node.retired = true;
+            }
+            m_weightedSize = 0;
+            m_windowWeight = 0;
+            m_protectedWeight = 0;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }	//	clear
+
+    /**
+     * 	Evict least valuable entries: probation, then window, then protected
+     *	@param weight weight to evict
+     *	@return weight evicted
+     */
+    long shrink (long weight)
+    {
+        long evicted = 0;
+        List<CCache.Node<K,V>> nodes;
+        m_lock.lock();
+        try
+        {
+            for (NodeList<K,V> list : List.of(m_probation, m_window, m_protected))
+            {
+                CCache.Node<K,V> node;
+                while (evicted < weight && (node = list.first()) != null)
+                {
+                    evicted += node.weight;
+                    evictNode(node);
+                }
+            }
+            nodes = takeEvicted();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+        deliver(nodes);
+        return evicted;
+    }	//	shrink
+
+    /**
+     * 	Move window overflow to the main space and evict until the cache fits
+     */
+    private void evict()
+    {
+        CCache.Node<K,V> candidate = null;
+        while (m_windowWeight > m_windowMaximum)
+        {
+            CCache.Node<K,V> node = m_window.pollFirst();
+            if (node == null)
+                break;
+            m_windowWeight -= node.weight;
+            node.queue = PROBATION;
+            m_probation.addLast(node);
+            if (candidate == null)
+                candidate = node;
+        }
+
+        while (m_weightedSize > m_maximum)
+        {
+            CCache.Node<K,V> victim = m_probation.first();
+            if (candidate == null)
+            {
+                //	nothing new to admit - plain LRU
+                if (victim == null)
+                    victim = m_protected.first();
+                if (victim == null)
+                    victim = m_window.first();
+                if (victim == null)
+                    break;
+                evictNode(victim);
+                continue;
+            }
+            if (victim == candidate)
+            {
+                //	probation only holds new arrivals - let them compete
+                candidate = candidate.next;
+                if (candidate == null)
+                {
+                    evictNode(victim);
+                    continue;
+                }
+            }
+            if (m_sketch.frequency(candidate.key) > m_sketch.frequency(victim.key))
+            {
+                evictNode(victim);
+            }
+            else
+            {
+                CCache.Node<K,V> next = candidate.next;
+                evictNode(candidate);
+                candidate = next;
+            }
+        }
+    }	//	evict
+
+    /**
+     * 	Evict node from policy and map
+     */
+    private void evictNode (CCache.Node<K,V> node)
+    {
+        node.retired = true;
+        unlink(node);
+        if (m_map.remove(node.key, node))
+        {
+            m_evictionCount++;
+            m_evicted.add(node);
+        }
+    }	//	evictNode
+
+    /**
+     * 	Take evicted nodes collected under the lock
+     *	@return evicted nodes or null
+     */
+    private List<CCache.Node<K,V>> takeEvicted()
+    {
+        if (m_evicted.isEmpty())
+            return null;
+        List<CCache.Node<K,V>> evicted = m_evicted;
+        m_evicted = new ArrayList<CCache.Node<K,V>>();
+        return evicted;
+    }	//	takeEvicted
+
+    /**
+     * 	Hand on evicted nodes - with the policy unlocked
+     */
+    private void deliver (List<CCache.Node<K,V>> evicted)
+    {
+        if (evicted == null)
+            return;
+        for (CCache.Node<K,V> node : evicted)
+            m_onEvict.accept(node);
+    }	//	deliver
+
+    /**
+     * 	Unlink node and adjust weights
+     */
+    private void unlink (CCache.Node<K,V> node)
+    {
+        if (!node.isLinked())
+            return;
+        if (node.queue == WINDOW)
+        {
+            m_window.remove(node);
+            m_windowWeight -= node.weight;
+        }
+        else if (node.queue == PROBATION)
+        {
+            m_probation.remove(node);
+        }
+        else
+        {
+            m_protected.remove(node);
+            m_protectedWeight -= node.weight;
+        }
+        m_weightedSize -= node.weight;
+    }	//	unlink
+
+    /**
+     *	Intrusive doubly linked list of cache nodes, least recently used first
+     */
+    private static final class NodeList<K,V>
+    {
+        private CCache.Node<K,V> head = null;
+        private CCache.Node<K,V> tail = null;
+
+        CCache.Node<K,V> first()
+        {
+            return head;
+        }
+
+        void addLast (CCache.Node<K,V> node)
+        {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null)
+                head = node;
+            else
+                tail.next = node;
+            tail = node;
+            node.linked = true;
+        }
+
+        void remove (CCache.Node<K,V> node)
+        {
+            if (node.prev == null)
+                head = node.next;
+            else
+                node.prev.next = node.next;
+            if (node.next == null)
+                tail = node.prev;
+            else
+                node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            node.linked = false;
+        }
+
+        CCache.Node<K,V> pollFirst()
+        {
+            CCache.Node<K,V> node = head;
+            if (node != null)
+                remove(node);
+            return node;
+        }
+
+        void moveToLast (CCache.Node<K,V> node)
+        {
+            if (node != tail)
+            {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }	//	NodeList
+}	//	CacheEvictionPolicy
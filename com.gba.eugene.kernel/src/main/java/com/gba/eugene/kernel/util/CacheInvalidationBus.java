@@ -0,0 +1,430 @@
+package com.gba.eugene.kernel.util;
+
+import com.gba.eugene.kernel.db.DatabaseConnection;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ *	Cache invalidation between nodes sharing one PostgreSQL database.<br/>
+ *	Resets published by {@link CacheMgt#reset(String, int)} are collected, de-duplicated and sent
+ *	with <code>pg_notify</code> at most every {@link #FLUSH_INTERVAL_MS} ms. Each node keeps one
+ *	dedicated (non pooled) connection that LISTENs on {@link #CHANNEL} and applies the resets
+ *	of the other nodes locally.<br/>
+ *	If the listener connection is lost, notifications may have been missed, so all local caches
+ *	are reset after reconnecting.
+ *	<pre>
+ *	CacheInvalidationBus bus = new CacheInvalidationBus(DatabaseConnection.get());
+ *	bus.start();
+ *	</pre>
+ */
+public class CacheInvalidationBus {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheInvalidationBus.class);
+
+    /**	Notification Channel		*/
+    public static final String	CHANNEL = "eugene_cache_reset";
+    /**	Max wait before pending resets are sent	*/
+    public static final int		FLUSH_INTERVAL_MS = 50;
+    /**	Max payload - PostgreSQL limit is 8000 bytes	*/
+    static final int			MAX_PAYLOAD = 7500;
+    /**	Record IDs per table before the table is reset as a whole	*/
+    static final int			MAX_RECORD_IDS = 500;
+    /**	Max wait between reconnect attempts	*/
+    private static final long	MAX_RECONNECT_WAIT_MS = 30000;
+    /**	All Records marker			*/
+    private static final String	ALL = "*";
+    /**	Field separator of payload	*/
+    private static final char	SEPARATOR = '|';
+
+    /**	Node Identifier - own notifications are ignored	*/
+    private final String		m_nodeId = UUID.randomUUID().toString();
+    /**	Connection Descriptor		*/
+    private final DatabaseConnection m_cc;
+    /**	Pending resets: table -> record IDs, empty set for the whole table	*/
+    private final Map<String, Set<Integer>> m_pending = new LinkedHashMap<String, Set<Integer>>();
+
+    /**	Listener Connection - used by listener thread only	*/
+    private Connection			m_conn = null;
+    /**	Listener Thread				*/
+    private Thread				m_thread = null;
+    /**	Running						*/
+    private volatile boolean	m_running = false;
+
+    /**
+     * 	Invalidation Bus
+     *	@param cc connection descriptor of the shared database
+     */
+    public CacheInvalidationBus (DatabaseConnection cc)
+    {
+        if (cc == null)
+            throw new IllegalArgumentException("Connection is NULL");
+        m_cc = cc;
+    }	//	CacheInvalidationBus
+
+    /**
+     * 	Get Node Identifier
+     *	@return unique id of this node
+     */
+    public String getNodeId()
+    {
+        return m_nodeId;
+    }	//	getNodeId
+
+    /**
+     * 	Is Running
+     *	@return true if started
+     */
+    public boolean isRunning()
+    {
+        return m_running;
+    }	//	isRunning
+
+    /**
+     * 	Connect, start listening and register with {@link CacheMgt}
+     *	@throws SQLException if the listener connection cannot be opened
+     */
+    public synchronized void start() throws SQLException
+    {
+        if (m_running)
+            return;
+        connect();
+        m_running = true;
+        m_thread = new Thread(this::run, "CacheInvalidationBus");
+        m_thread.setDaemon(true);
+        m_thread.start();
+        CacheMgt.get().setInvalidationBus(this);
+        log.info("Started " + m_nodeId);
+    }	//	start
+
+    /**
+     * 	Send pending resets, stop listening and unregister from {@link CacheMgt}
+     */
+    public synchronized void stop()
+    {
+        if (!m_running)
+            return;
+        CacheMgt.get().setInvalidationBus(null);
+        m_running = false;
+        Thread thread = m_thread;
+        m_thread = null;
+        if (thread != null)
+        {
+            //	end a reconnect wait
+            thread.interrupt();
+            try
+            {
+                thread.join(MAX_RECONNECT_WAIT_MS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.info("Stopped " + m_nodeId);
+    }	//	stop
+
+    /**
+     * 	Publish reset to the other nodes
+     *	@param tableName table name or null for all caches
+     *	@param Record_ID record or 0 for all records
+     */
+    public void publish (String tableName, int Record_ID)
+    {
+        if (!m_running)
+            return;
+        addPending(tableName == null ? "" : tableName, Record_ID);
+    }	//	publish
+
+    /**
+     * 	Add pending reset, de-duplicated
+     *	@param table table name or empty for all caches
+     *	@param Record_ID record or 0 for all records
+     */
+    void addPending (String table, int Record_ID)
+    {
+        synchronized (m_pending)
+        {
+            Set<Integer> ids = m_pending.get(table);
+            if (ids != null && ids.isEmpty())
+                return;		//	whole table pending already
+            if (Record_ID <= 0 || table.isEmpty())
+            {
+                m_pending.put(table, Collections.emptySet());
+                return;
+            }
+            if (ids == null)
+            {
+                ids = new LinkedHashSet<Integer>();
+                m_pending.put(table, ids);
+            }
+            ids.add(Record_ID);
+            if (ids.size() > MAX_RECORD_IDS)
+                m_pending.put(table, Collections.emptySet());
+        }
+    }	//	addPending
+
+    /**
+     * 	Take pending resets
+     *	@return table -> record IDs, empty set for the whole table
+     */
+    Map<String, Set<Integer>> takePending()
+    {
+        synchronized (m_pending)
+        {
+            Map<String, Set<Integer>> pending = new LinkedHashMap<String, Set<Integer>>(m_pending);
+            m_pending.clear();
+            return pending;
+        }
+    }	//	takePending
+
+    /**
+     * 	Listener loop: send pending resets, then wait for notifications
+     */
+    private void run()
+    {
+        long reconnectWait = 1000;
+        while (m_running)
+        {
+            try
+            {
+                if (m_conn == null)
+                {
+                    connect();
+                    reconnectWait = 1000;
+                    log.warn("Reconnected - resetting local caches as notifications may be lost");
+                    CacheMgt.get().resetLocal(null, 0);
+                }
+                flush();
+                PGNotification[] notifications = m_conn.unwrap(PGConnection.class).getNotifications(FLUSH_INTERVAL_MS);
+                if (notifications != null)
+                {
+                    for (PGNotification notification : notifications)
+                        receive(notification.getParameter());
+                }
+            }
+            catch (SQLException e)
+            {
+                log.error("Listener connection lost", e);
+                close();
+                sleep(reconnectWait);
+                reconnectWait = Math.min(reconnectWait * 2, MAX_RECONNECT_WAIT_MS);
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Cache reset failed", e);
+            }
+        }
+        //	last resets before shutdown - not interrupted by stop
+        Thread.interrupted();
+        try
+        {
+            if (m_conn != null)
+                flush();
+        }
+        catch (SQLException e)
+        {
+            log.error("Flush on stop failed", e);
+        }
+        close();
+    }	//	run
+
+    /**
+     * 	Send pending resets
+     *	@throws SQLException
+     */
+    private void flush() throws SQLException
+    {
+        Map<String, Set<Integer>> pending = takePending();
+        if (pending.isEmpty())
+            return;
+        List<String> payloads = encode(pending);
+        try (PreparedStatement pstmt = m_conn.prepareStatement("SELECT pg_notify(?, ?)"))
+        {
+            for (String payload : payloads)
+            {
+                pstmt.setString(1, CHANNEL);
+                pstmt.setString(2, payload);
+                pstmt.execute();
+            }
+        }
+        catch (SQLException e)
+        {
+            //	keep for next attempt, also when stopping
+            for (Map.Entry<String, Set<Integer>> entry : pending.entrySet())
+            {
+                if (entry.getValue().isEmpty())
+                    addPending(entry.getKey(), 0);
+                else
+                    for (Integer id : entry.getValue())
+                        addPending(entry.getKey(), id);
+            }
+            throw e;
+        }
+        if (log.isDebugEnabled()) log.debug("Sent " + payloads.size() + " notification(s) for " + pending.keySet());
+    }	//	flush
+
+    /**
+     * 	Encode resets as payloads of limited size:
+     * 	<code>nodeId|tableName|*</code> or <code>nodeId|tableName|id,id,..</code>
+     *	@param pending table -> record IDs, empty set for the whole table
+     *	@return payloads
+     */
+    List<String> encode (Map<String, Set<Integer>> pending)
+    {
+        List<String> payloads = new ArrayList<String>();
+        for (Map.Entry<String, Set<Integer>> e : pending.entrySet())
+            encode(e.getKey(), e.getValue(), payloads);
+        return payloads;
+    }	//	encode
+
+    /**
+     * 	Encode resets of table
+     */
+    private void encode (String table, Set<Integer> ids, List<String> payloads)
+    {
+        String prefix = m_nodeId + SEPARATOR + table + SEPARATOR;
+        if (ids.isEmpty())
+        {
+            payloads.add(prefix + ALL);
+            return;
+        }
+        StringBuilder sb = new StringBuilder(prefix);
+        for (Integer id : ids)
+        {
+            String value = id.toString();
+            if (sb.length() > prefix.length() && sb.length() + 1 + value.length() > MAX_PAYLOAD)
+            {
+                payloads.add(sb.toString());
+                sb = new StringBuilder(prefix);
+            }
+            if (sb.length() > prefix.length())
+                sb.append(',');
+            sb.append(value);
+        }
+        payloads.add(sb.toString());
+    }	//	encode
+
+    /**
+     * 	Apply reset of other node
+     *	@param payload notification payload
+     */
+    void receive (String payload)
+    {
+        if (payload == null)
+            return;
+        int first = payload.indexOf(SEPARATOR);
+        int last = payload.lastIndexOf(SEPARATOR);
+        if (first < 0 || first == last)
+        {
+            log.warn("Invalid payload: " + payload);
+            return;
+        }
+        if (payload.substring(0, first).equals(m_nodeId))
+            return;
+        String table = payload.substring(first + 1, last);
+        String ids = payload.substring(last + 1);
+        String tableName = table.isEmpty() ? null : table;
+        CacheMgt cacheMgt = CacheMgt.get();
+        if (tableName == null || ALL.equals(ids))
+        {
+            cacheMgt.resetLocal(tableName, 0);
+            return;
+        }
+        //	parse all first, so dependent caches are reset once
+        String[] values = ids.split(",");
+        int[] Record_IDs = new int[values.length];
+        int no = 0;
+        for (String id : values)
+        {
+            try
+            {
+                int Record_ID = Integer.parseInt(id);
+                if (Record_ID > 0)
+                    Record_IDs[no++] = Record_ID;
+            }
+            catch (NumberFormatException e)
+            {
+                log.warn("Invalid Record_ID " + id + " in " + payload);
+            }
+        }
+        if (no > 0)
+            cacheMgt.resetLocal(tableName, Arrays.copyOf(Record_IDs, no));
+    }	//	receive
+
+    /**
+     * 	Open listener connection
+     *	@throws SQLException
+     */
+    private void connect() throws SQLException
+    {
+        Connection conn = m_cc.getDatabase().getDriverConnection(m_cc.getConnectionURL(), m_cc.getDbUid(), m_cc.getDbPwd());
+        try (Statement stmt = conn.createStatement())
+        {
+            conn.setAutoCommit(true);
+            stmt.execute("LISTEN " + CHANNEL);
+        }
+        catch (SQLException e)
+        {
+            conn.close();
+            throw e;
+        }
+        m_conn = conn;
+    }	//	connect
+
+    /**
+     * 	Close listener connection
+     */
+    private void close()
+    {
+        if (m_conn != null)
+        {
+            try
+            {
+                m_conn.close();
+            }
+            catch (SQLException e)
+            {
+            }
+        }
+        m_conn = null;
+    }	//	close
+
+    private void sleep (long ms)
+    {
+        try
+        {
+            Thread.sleep(ms);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            m_running = false;
+        }
+    }	//	sleep
+
+    /**
+     * 	String Representation
+     * 	@return info
+     */
+    @Override
+    public String toString()
+    {
+        return "CacheInvalidationBus[" + m_nodeId + ",Running=" + m_running + "]";
+    }	//	toString
+}	//	CacheInvalidationBus
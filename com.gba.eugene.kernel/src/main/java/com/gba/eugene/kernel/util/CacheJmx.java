@@ -0,0 +1,317 @@
+package com.gba.eugene.kernel.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.Date;
+import java.util.List;
+
+/**
+ *	Registers the management beans of {@link CacheMgt} and its caches with the platform
+ *	MBean server. Cache beans only hold a weak reference, so a registered cache can still be
+ *	collected; {@link CacheMgt} unregisters the bean when it purges the cache.
+ */
+final class CacheJmx {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheJmx.class);
+
+    /**	Domain of object names		*/
+    static final String			DOMAIN = "com.gba.eugene.kernel";
+
+    /**
+     *	Static methods only
+     */
+    private CacheJmx()
+    {
+    }	//	CacheJmx
+
+    /**
+     * 	Register bean of cache manager
+     *	@param mgt cache manager
+     */
+    static void register (CacheMgt mgt)
+    {
+        try
+        {
+            ObjectName name = new ObjectName(DOMAIN + ":type=CacheMgt");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(new StandardMBean(new MgtBean(mgt), CacheMgtMXBean.class, true), name);
+        }
+        catch (JMException | RuntimeException e)
+        {
+            log.warn("Cannot register CacheMgt bean: " + e);
+        }
+    }	//	register
+
+    /**
+     * 	Register bean of cache
+     *	@param cache cache
+     *	@return object name or null if not registered
+     */
+    static ObjectName register (CCache<?,?> cache)
+    {
+        try
+        {
+            String cacheName = cache.getName() == null ? "" : cache.getName();
+            ObjectName name = new ObjectName(DOMAIN + ":type=CCache,name=" + ObjectName.quote(cacheName)
+                    + ",id=" + Integer.toHexString(System.identityHashCode(cache)));
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new StandardMBean(new CacheBean(cache), CacheMXBean.class, true), name);
+            return name;
+        }
+        catch (JMException | RuntimeException e)
+        {
+            if (log.isDebugEnabled()) log.debug("Cannot register bean of " + cache.getName() + ": " + e);
+            return null;
+        }
+    }	//	register
+
+    /**
+     * 	Unregister bean
+     *	@param name object name or null
+     */
+    static void unregister (ObjectName name)
+    {
+        if (name == null)
+            return;
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch (JMException | RuntimeException e)
+        {
+            if (log.isDebugEnabled()) log.debug("Cannot unregister " + name + ": " + e);
+        }
+    }	//	unregister
+
+    /**
+     *	Bean of a cache, empty once the cache is collected
+     */
+    private static final class CacheBean implements CacheMXBean
+    {
+        private final WeakReference<CCache<?,?>> ref;
+        private final String name;
+
+        CacheBean (CCache<?,?> cache)
+        {
+            this.ref = new WeakReference<CCache<?,?>>(cache);
+            this.name = cache.getName();
+        }
+
+        private CacheStats stats()
+        {
+            CCache<?,?> cache = ref.get();
+            return cache == null ? CacheStats.of(name, 0) : cache.getStats();
+        }
+
+        @Override
+        public String getName()
+        {
+            return name;
+        }
+
+        @Override
+        public int getSize()
+        {
+            CCache<?,?> cache = ref.get();
+            return cache == null ? 0 : cache.sizeNoExpire();
+        }
+
+        @Override
+        public long getMaxWeight()
+        {
+            CCache<?,?> cache = ref.get();
+            return cache == null ? 0 : cache.getMaxWeight();
+        }
+
+        @Override
+        public long getEstimatedBytes()
+        {
+            CCache<?,?> cache = ref.get();
+            return cache == null ? 0 : cache.estimatedBytes();
+        }
+
+        @Override
+        public long getHitCount()
+        {
+            return stats().getHitCount();
+        }
+
+        @Override
+        public long getMissCount()
+        {
+            return stats().getMissCount();
+        }
+
+        @Override
+        public double getHitRate()
+        {
+            return stats().getHitRate();
+        }
+
+        @Override
+        public long getLoadCount()
+        {
+            CacheStats stats = stats();
+            return stats.getLoadSuccessCount() + stats.getLoadFailureCount();
+        }
+
+        @Override
+        public double getAverageLoadMillis()
+        {
+            return stats().getAverageLoadPenalty() / 1000000.0;
+        }
+
+        @Override
+        public long getEvictionCount()
+        {
+            return stats().getEvictionCount();
+        }
+
+        @Override
+        public long getExpirationCount()
+        {
+            return stats().getExpirationCount();
+        }
+
+        @Override
+        public Date getLastReset()
+        {
+            CCache<?,?> cache = ref.get();
+            return cache == null || cache.getResetTime() == 0 ? null : new Date(cache.getResetTime());
+        }
+
+        @Override
+        public int getExpireMinutes()
+        {
+            CCache<?,?> cache = ref.get();
+            return cache == null ? 0 : cache.getExpireMinutes();
+        }
+
+        @Override
+        public void setExpireMinutes (int expireMinutes)
+        {
+            CCache<?,?> cache = ref.get();
+            if (cache != null)
+                cache.setExpireMinutes(expireMinutes);
+        }
+
+        @Override
+        public int reset()
+        {
+            CCache<?,?> cache = ref.get();
+            return cache == null ? 0 : cache.reset();
+        }
+
+        @Override
+        public int resetRecord (int Record_ID)
+        {
+            CCache<?,?> cache = ref.get();
+            return cache == null ? 0 : cache.reset(Record_ID);
+        }
+
+        @Override
+        public int cleanUp()
+        {
+            CCache<?,?> cache = ref.get();
+            return cache == null ? 0 : cache.cleanUp();
+        }
+    }	//	CacheBean
+
+    /**
+     *	Bean of the cache manager
+     */
+    private static final class MgtBean implements CacheMgtMXBean
+    {
+        private final CacheMgt mgt;
+
+        MgtBean (CacheMgt mgt)
+        {
+            this.mgt = mgt;
+        }
+
+        @Override
+        public int getInstanceCount()
+        {
+            return mgt.getCacheStats().size();
+        }
+
+        @Override
+        public long getElementCount()
+        {
+            long total = 0;
+            for (CacheStats stats : mgt.getCacheStats())
+                total += stats.getSize();
+            return total;
+        }
+
+        @Override
+        public String[] getCacheNames()
+        {
+            List<CacheStats> list = mgt.getCacheStats();
+            return list.stream().map(CacheStats::getName).distinct().toArray(String[]::new);
+        }
+
+        @Override
+        public long getEstimatedBytes()
+        {
+            return mgt.getEstimatedBytes();
+        }
+
+        @Override
+        public long getHeapBudget()
+        {
+            return mgt.getHeapBudget();
+        }
+
+        @Override
+        public void setHeapBudget (long bytes)
+        {
+            mgt.setHeapBudget(bytes);
+        }
+
+        @Override
+        public double getHitRate()
+        {
+            return mgt.getTotalStats().getHitRate();
+        }
+
+        @Override
+        public boolean isMaintained()
+        {
+            return CacheMgt.isMaintained();
+        }
+
+        @Override
+        public int reset()
+        {
+            return mgt.reset();
+        }
+
+        @Override
+        public int resetTable (String tableName)
+        {
+            return mgt.reset(tableName);
+        }
+
+        @Override
+        public int resetRecord (String tableName, int Record_ID)
+        {
+            return mgt.reset(tableName, Record_ID);
+        }
+
+        @Override
+        public long enforceHeapBudget()
+        {
+            return mgt.enforceHeapBudget();
+        }
+    }	//	MgtBean
+}	//	CacheJmx
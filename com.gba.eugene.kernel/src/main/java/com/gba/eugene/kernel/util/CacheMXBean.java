@@ -0,0 +1,64 @@
+package com.gba.eugene.kernel.util;
+
+import java.util.Date;
+
+/**
+ *	Management interface of a {@link CCache}, registered by {@link CacheMgt} as
+ *	<code>com.gba.eugene.kernel:type=CCache,name=&lt;name&gt;,id=&lt;instance&gt;</code>.
+ */
+public interface CacheMXBean {
+
+    /**	(Table) Name				*/
+    public String getName();
+
+    /**	Number of entries			*/
+    public int getSize();
+
+    /**	Maximum weight, 0 if unbounded	*/
+    public long getMaxWeight();
+
+    /**	Estimated heap in bytes		*/
+    public long getEstimatedBytes();
+
+    public long getHitCount();
+
+    public long getMissCount();
+
+    /**	Hits / requests				*/
+    public double getHitRate();
+
+    public long getLoadCount();
+
+    /**	Average load time in ms		*/
+    public double getAverageLoadMillis();
+
+    public long getEvictionCount();
+
+    public long getExpirationCount();
+
+    /**	Last reset, null if never reset	*/
+    public Date getLastReset();
+
+    public int getExpireMinutes();
+
+    public void setExpireMinutes (int expireMinutes);
+
+    /**
+     * 	Reset Cache
+     *	@return number of entries cleared
+     */
+    public int reset();
+
+    /**
+     * 	Reset entries of record
+     *	@param Record_ID record
+     *	@return number of entries cleared
+     */
+    public int resetRecord (int Record_ID);
+
+    /**
+     * 	Remove expired entries
+     *	@return number of entries removed
+     */
+    public int cleanUp();
+}
@@ -3,14 +3,71 @@ package com.gba.eugene.kernel.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
+/**
+ *	Cache Management.<br/>
+ *	Registered caches are indexed by (table) name in a sorted map, so a table reset only visits
+ *	the caches whose name starts with the table name. Names are compared like SQL identifiers:
+ *	without schema and quotes, ignoring case (see {@link #normalizeName(String)}). Caches are held by weak references and
+ *	drop out of the registry once they are no longer used.<br/>
+ *	If a {@link CacheInvalidationBus} is running, resets are also published to the other nodes.<br/>
+ *	With a heap budget, the estimated heap of all caches is checked regularly; if it exceeds
+ *	the budget, the caches with the lowest hit rate per byte are shrunk first.<br/>
+ *	A single maintenance thread expires {@link CCache} entries, checks the heap budget and
+ *	keeps a coarse clock, once per {@link #TICK_MS}.<br/>
+ *	The manager ({@link CacheMgtMXBean}) and each {@link CCache} ({@link CacheMXBean}) are
+ *	registered as management beans, to inspect and reset caches over JMX.
+ */
 public class CacheMgt {
 
     private static final Logger log = LoggerFactory.getLogger(CacheMgt.class);
-    private ArrayList<ICache> m_instances = new ArrayList<ICache>();
-    /** List of Table Names				*/
-    private ArrayList<String>	m_tableNames = new ArrayList<String>();
+    /** Instances by (table) name			*/
+    private final ConcurrentSkipListMap<String, Set<CacheRef>> m_instances = new ConcurrentSkipListMap<String, Set<CacheRef>>();
+    /** Instances without name				*/
+    private final Set<CacheRef> m_unnamed = newRefSet();
+    /** Collected instances to purge		*/
+    private final ReferenceQueue<ICache> m_queue = new ReferenceQueue<ICache>();
+    /**	Invalidation Bus to other nodes - optional	*/
+    private volatile CacheInvalidationBus m_bus = null;
+    /**	Snapshot saved on shutdown - optional	*/
+    private volatile CacheSnapshot m_snapshot = null;
+    /**	Shutdown Hook saving the snapshot	*/
+    private Thread				m_snapshotHook = null;
+    /**	Heap Budget of all caches in bytes - 0 if none	*/
+    private volatile long		m_heapBudget = 0;
+    /**	Time of last budget check	*/
+    private final AtomicLong	m_lastBudgetCheck = new AtomicLong();
+
+    /**	Maintenance Thread			*/
+    private Thread				m_maintenance = null;
+    /**	Maintenance running			*/
+    private static volatile boolean s_maintained = false;
+    /**	Coarse Clock, updated by the maintenance thread	*/
+    private static volatile long s_clock = System.currentTimeMillis();
+    /**	Time Source of the caches, replaced by tests	*/
+    private static volatile LongSupplier s_ticker = System::currentTimeMillis;
+
+    /**	Maintenance Interval		*/
+    public static final long	TICK_MS = 1000;
+    /**	Min interval between budget checks	*/
+    private static final long	BUDGET_CHECK_INTERVAL_MS = 1000;
+    /**	Shrink to this percentage of the budget, so the next writes do not shrink again	*/
+    private static final int	BUDGET_LOW_WATER_PERCENT = 90;
 
     /**	Singleton					*/
     private static CacheMgt	s_cache = null;
@@ -31,6 +88,7 @@ public class CacheMgt {
      */
     private CacheMgt()
     {
+        CacheJmx.register(this);
     }	//	CacheMgt
 
     /**************************************************************************
@@ -38,17 +96,29 @@ public class CacheMgt {
      *	@param instance Cache
      *	@return true if added
      */
-    @SuppressWarnings("unchecked")
-    public synchronized boolean register (ICache instance)
+    public boolean register (ICache instance)
     {
         if (instance == null)
             return false;
-        if (instance instanceof CCache)
+        purge();
+        String name = normalizeName(instance.getName());
+        Set<CacheRef> refs = name == null ? m_unnamed : m_instances.computeIfAbsent(name, k -> newRefSet());
+        synchronized (refs)
         {
-            String tableName = ((CCache)instance).getName();
-            m_tableNames.add(tableName);
+            for (CacheRef ref : refs)
+            {
+                if (ref.get() == instance)
+                    return false;
+            }
+            CacheRef ref = new CacheRef(instance, name, m_queue);
+            if (instance instanceof CCache)
+                ref.mbean = CacheJmx.register((CCache<?,?>) instance);
+            refs.add(ref);
+            //	emptied and removed by purge meanwhile
+            if (name != null && m_instances.get(name) != refs)
+                m_instances.merge(name, refs, (a, b) -> { a.addAll(b); return a; });
         }
-        return m_instances.add (instance);
+        return true;
     }	//	register
 
     /**
@@ -60,32 +130,445 @@ public class CacheMgt {
     {
         if (instance == null)
             return false;
+        String name = normalizeName(instance.getName());
+        Set<CacheRef> refs = name == null ? m_unnamed : m_instances.get(name);
+        if (refs == null)
+            return false;
         boolean found = false;
-        //	Could be included multiple times
-        for (int i = m_instances.size()-1; i >= 0; i--)
+        for (CacheRef ref : refs)
         {
-            ICache stored = (ICache) m_instances.get(i);
-            if (instance.equals(stored))
+            if (ref.get() == instance && refs.remove(ref))
             {
-                m_instances.remove(i);
+                CacheJmx.unregister(ref.mbean);
                 found = true;
             }
         }
+        if (name != null)
+            removeIfEmpty(name);
         return found;
     }	//	unregister
 
+    /**
+     * 	Remove name without caches - atomic with {@link #register(ICache)} adding to its set
+     */
+    private void removeIfEmpty (String name)
+    {
+        m_instances.computeIfPresent(name, (k, refs) -> {
+            synchronized (refs)
+            {
+                return refs.isEmpty() ? null : refs;
+            }
+        });
+    }	//	removeIfEmpty
+
+    /**
+     * 	Remove references of collected caches
+     */
+    private void purge()
+    {
+        Reference<? extends ICache> polled;
+        while ((polled = m_queue.poll()) != null)
+        {
+            CacheRef ref = (CacheRef) polled;
+            CacheJmx.unregister(ref.mbean);
+            Set<CacheRef> refs = ref.name == null ? m_unnamed : m_instances.get(ref.name);
+            if (refs != null)
+            {
+                refs.remove(ref);
+                if (ref.name != null)
+                    removeIfEmpty(ref.name);
+            }
+        }
+    }	//	purge
+
+    /**
+     * 	Get all registered instances
+     *	@return live instances
+     */
+    private List<ICache> getInstances()
+    {
+        purge();
+        List<ICache> list = new ArrayList<ICache>();
+        for (Set<CacheRef> refs : m_instances.values())
+            addLive(refs, list);
+        addLive(m_unnamed, list);
+        return list;
+    }	//	getInstances
+
+    /**
+     * 	Get instances registered under name
+     *	@param name (table) name
+     *	@return live instances
+     */
+    List<ICache> getInstancesNamed (String name)
+    {
+        purge();
+        List<ICache> list = new ArrayList<ICache>();
+        Set<CacheRef> refs = m_instances.get(normalizeName(name));
+        if (refs != null)
+            addLive(refs, list);
+        return list;
+    }	//	getInstancesNamed
+
+    /**
+     * 	Normalize (table) name as index key: without schema and quotes, in lower case
+     *	@param name name, e.g. adempiere."C_Order"
+     *	@return key, e.g. c_order - null if name is null
+     */
+    static String normalizeName (String name)
+    {
+        if (name == null)
+            return null;
+        String key = name.trim().replace("\"", "");
+        key = key.substring(key.lastIndexOf('.') + 1);
+        return key.toLowerCase(Locale.ROOT);
+    }	//	normalizeName
+
+    /**
+     * 	Get instances whose name starts with prefix
+     *	@param prefix normalized (table) name
+     *	@return live instances
+     */
+    private List<ICache> getInstances (String prefix)
+    {
+        purge();
+        List<ICache> list = new ArrayList<ICache>();
+        for (Map.Entry<String, Set<CacheRef>> e : m_instances.tailMap(prefix, true).entrySet())
+        {
+            if (!e.getKey().startsWith(prefix))
+                break;
+            addLive(e.getValue(), list);
+        }
+        return list;
+    }	//	getInstances
+
+    /**
+     * 	Add referenced caches to list
+     */
+    private static void addLive (Set<CacheRef> refs, List<ICache> list)
+    {
+        for (CacheRef ref : refs)
+        {
+            ICache cache = ref.get();
+            if (cache != null)
+                list.add(cache);
+        }
+    }	//	addLive
+
+    /**
+     * 	Set Invalidation Bus
+     *	@param bus bus publishing resets to other nodes or null
+     */
+    public void setInvalidationBus (CacheInvalidationBus bus)
+    {
+        m_bus = bus;
+    }	//	setInvalidationBus
+
+    /**
+     * 	Get Invalidation Bus
+     *	@return bus or null
+     */
+    public CacheInvalidationBus getInvalidationBus()
+    {
+        return m_bus;
+    }	//	getInvalidationBus
+
+    /**
+     * 	Publish reset to other nodes
+     */
+    private void publish (String tableName, int Record_ID)
+    {
+        CacheInvalidationBus bus = m_bus;
+        if (bus != null)
+            bus.publish(tableName, Record_ID);
+    }	//	publish
+
+    /**
+     * 	Start Maintenance Thread if not running - called by caches that expire entries
+     */
+    public synchronized void startMaintenance()
+    {
+        if (m_maintenance != null)
+            return;
+        s_clock = nowMillis();
+        m_maintenance = new Thread(this::maintain, "CacheMgt-Maintenance");
+        m_maintenance.setDaemon(true);
+        s_maintained = true;
+        m_maintenance.start();
+    }	//	startMaintenance
+
+    /**
+     * 	Stop Maintenance Thread - caches then check expiry when read
+     */
+    public void stopMaintenance()
+    {
+        Thread thread;
+        synchronized (this)
+        {
+            thread = m_maintenance;
+            m_maintenance = null;
+            s_maintained = false;
+        }
+        if (thread != null)
+        {
+            thread.interrupt();
+            try
+            {
+                thread.join(TICK_MS * 5);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }	//	stopMaintenance
+
+    /**
+     * 	Is the Maintenance Thread running
+     *	@return true if expired entries are removed in the background
+     */
+    static boolean isMaintained()
+    {
+        return s_maintained;
+    }	//	isMaintained
+
+    /**
+     * 	Coarse current time, updated every {@link #TICK_MS} while maintained
+     *	@return time in ms
+     */
+    static long currentTimeMillis()
+    {
+        return s_maintained ? s_clock : nowMillis();
+    }	//	currentTimeMillis
+
+    /**
+     * 	Current time of the time source
+     *	@return time in ms
+     */
+    static long nowMillis()
+    {
+        return s_ticker.getAsLong();
+    }	//	nowMillis
+
+    /**
+     * 	Set Time Source of the caches
+     *	@param ticker time in ms or null for the system clock
+     */
+    static void setTicker (LongSupplier ticker)
+    {
+        s_ticker = ticker == null ? System::currentTimeMillis : ticker;
+        s_clock = nowMillis();
+    }	//	setTicker
+
+    /**
+     * 	Maintenance loop
+     */
+    private void maintain()
+    {
+        Thread self = Thread.currentThread();
+        while (m_maintenance == self)
+        {
+            try
+            {
+                Thread.sleep(TICK_MS);
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+            long now = nowMillis();
+            s_clock = now;
+            try
+            {
+                int expired = 0;
+                for (ICache stored : getInstances())
+                {
+                    if (stored instanceof CCache)
+                        expired += ((CCache<?,?>) stored).expireEntries(now);
+                    else if (stored instanceof CCacheLong)
+                        expired += ((CCacheLong<?>) stored).expireEntries(now);
+                }
+                if (expired > 0 && log.isDebugEnabled()) log.debug("Expired " + expired);
+                checkHeapBudget();
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Maintenance failed", e);
+            }
+        }
+    }	//	maintain
+
+    /**
+     * 	Set Snapshot to be saved when the JVM shuts down.
+     * 	Load the snapshot before, once its caches are added.
+     *	@param snapshot snapshot or null
+     */
+    public synchronized void setSnapshot (CacheSnapshot snapshot)
+    {
+        m_snapshot = snapshot;
+        if (snapshot != null && m_snapshotHook == null)
+        {
+            m_snapshotHook = new Thread(this::saveSnapshot, "CacheSnapshot");
+            Runtime.getRuntime().addShutdownHook(m_snapshotHook);
+        }
+    }	//	setSnapshot
+
+    /**
+     * 	Get Snapshot
+     *	@return snapshot or null
+     */
+    public CacheSnapshot getSnapshot()
+    {
+        return m_snapshot;
+    }	//	getSnapshot
+
+    /**
+     * 	Save Snapshot if set
+     *	@return number of entries saved
+     */
+    public int saveSnapshot()
+    {
+        CacheSnapshot snapshot = m_snapshot;
+        if (snapshot == null)
+            return 0;
+        try
+        {
+            return snapshot.save();
+        }
+        catch (IOException e)
+        {
+            log.error("Cannot save " + snapshot, e);
+            return 0;
+        }
+    }	//	saveSnapshot
+
+    /**
+     * 	Set Heap Budget
+     *	@param bytes estimated heap all caches may use together or 0 for no limit
+     */
+    public void setHeapBudget (long bytes)
+    {
+        m_heapBudget = Math.max(bytes, 0);
+        if (m_heapBudget != 0)
+            startMaintenance();
+    }	//	setHeapBudget
+
+    /**
+     * 	Get Heap Budget
+     *	@return bytes or 0 if no limit
+     */
+    public long getHeapBudget()
+    {
+        return m_heapBudget;
+    }	//	getHeapBudget
+
+    /**
+     * 	Estimated Heap used by all registered Cache
+     *	@return bytes
+     */
+    public long getEstimatedBytes()
+    {
+        return getEstimatedBytes(getInstances());
+    }	//	getEstimatedBytes
+
+    /**
+     * 	Estimated Heap used by caches
+     *	@param caches caches
+     *	@return bytes
+     */
+    static long getEstimatedBytes (List<ICache> caches)
+    {
+        long total = 0;
+        for (ICache stored : caches)
+            total += stored.estimatedBytes();
+        return total;
+    }	//	getEstimatedBytes
+
+    /**
+     * 	Enforce Heap Budget unless checked within the last second - called by the maintenance thread
+     */
+    public void checkHeapBudget()
+    {
+        if (m_heapBudget == 0)
+            return;
+        long now = System.currentTimeMillis();
+        long last = m_lastBudgetCheck.get();
+        if (now - last < BUDGET_CHECK_INTERVAL_MS || !m_lastBudgetCheck.compareAndSet(last, now))
+            return;
+        enforceHeapBudget();
+    }	//	checkHeapBudget
+
+    /**
+     * 	Enforce Heap Budget.<br/>
+     * 	If the caches use more than the budget, the least valuable caches (low hit rate,
+     * 	high weight) are shrunk until the total is below 90% of the budget.
+     *	@return estimated bytes freed
+     */
+    public long enforceHeapBudget()
+    {
+        long budget = m_heapBudget;
+        if (budget == 0)
+            return 0;
+        return enforceHeapBudget(getInstances(), budget);
+    }	//	enforceHeapBudget
+
+    /**
+     * 	Shrink the least valuable of the caches until they use less than 90% of the budget
+     *	@param caches caches
+     *	@param budget bytes
+     *	@return estimated bytes freed
+     */
+    static long enforceHeapBudget (List<ICache> caches, long budget)
+    {
+        List<CacheUsage> usages = new ArrayList<CacheUsage>();
+        long total = 0;
+        for (ICache stored : caches)
+        {
+            long bytes = stored.estimatedBytes();
+            if (bytes <= 0)
+                continue;
+            total += bytes;
+            usages.add(new CacheUsage(stored, bytes, stored.getStats().getHitRate()));
+        }
+        if (total <= budget)
+            return 0;
+        long excess = total - budget * BUDGET_LOW_WATER_PERCENT / 100;
+        usages.sort(Comparator.comparingDouble(CacheUsage::value));
+        long freed = 0;
+        for (CacheUsage usage : usages)
+        {
+            if (freed >= excess)
+                break;
+            long shrunk = usage.cache.shrink(Math.min(usage.bytes, excess - freed));
+            freed += shrunk;
+            if (log.isDebugEnabled()) log.debug("Shrunk " + usage.cache + " by " + shrunk + " bytes");
+        }
+        log.info("Heap budget " + budget + " exceeded by caches using " + total + " bytes - freed " + freed);
+        return freed;
+    }	//	enforceHeapBudget
+
     /**************************************************************************
      * 	Reset All registered Cache
      * 	@return number of deleted cache entries
      */
     public int reset()
+    {
+        int total = resetAll();
+        publish(null, 0);
+        return total;
+    }	//	reset
+
+    /**
+     * 	Reset All registered Cache of this node
+     * 	@return number of deleted cache entries
+     */
+    private int resetAll()
     {
         int counter = 0;
         int total = 0;
-        for (int i = 0; i < m_instances.size(); i++)
+        for (ICache stored : getInstances())
         {
-            ICache stored = (ICache) m_instances.get(i);
-            if (stored != null && stored.size() > 0)
+            if (stored.size() > 0)
             {
                 log.info(stored.toString());
                 total += stored.reset();
@@ -94,7 +577,7 @@ public class CacheMgt {
         }
         log.info("#" + counter + " (" + total + ")");
         return total;
-    }	//	reset
+    }	//	resetAll
 
     /**
      * 	Reset registered Cache
@@ -112,56 +595,87 @@ public class CacheMgt {
      * 	@param Record_ID record if applicable or 0 for all
      * 	@return number of deleted cache entries
      */
-    @SuppressWarnings("unchecked")
     public int reset (String tableName, int Record_ID)
     {
         if (tableName == null)
             return reset();
+        int total = resetLocal(tableName, Record_ID);
+        publish(tableName, Record_ID);
+        return total;
+    }	//	reset
+
+    /**
+     * 	Reset registered Cache of this node only.<br/>
+     * 	The Record_ID only applies to caches of the table itself; caches of dependent tables
+     * 	(name starting with the table name) are reset completely, but only if a cache of the
+     * 	table itself is registered.
+     * 	@param tableName table name or null for all
+     * 	@param Record_ID record if applicable or 0 for all
+     * 	@return number of deleted cache entries
+     */
+    int resetLocal (String tableName, int Record_ID)
+    {
+        if (tableName == null)
+            return resetAll();
+        return resetLocal(tableName, Record_ID <= 0 ? null : new int[]{Record_ID});
+    }	//	resetLocal
+
+    /**
+     * 	Reset registered Cache of this node only, for several records.<br/>
+     * 	Caches of dependent tables are reset once.
+     * 	@param tableName table name
+     * 	@param Record_IDs records or null for all
+     * 	@return number of deleted cache entries
+     */
+    int resetLocal (String tableName, int[] Record_IDs)
+    {
         //	if (tableName.endsWith("Set"))
         //		tableName = tableName.substring(0, tableName.length()-3);
-        if (!m_tableNames.contains(tableName))
+        String key = normalizeName(tableName);
+        //	no cache of the table itself
+        if (!m_instances.containsKey(key))
+            return 0;
+        List<ICache> instances = getInstances(key);		//	reset lines/dependent too
+        if (instances.isEmpty())
             return 0;
         //
         int counter = 0;
         int total = 0;
-        for (int i = 0; i < m_instances.size(); i++)
+        for (ICache stored : instances)
         {
-            ICache stored = (ICache) m_instances.get(i);
-            if (stored != null && stored instanceof CCache)
+            //	dependent caches (e.g. lines) are not keyed by the ID of this table
+            if (Record_IDs == null || !key.equals(normalizeName(stored.getName())))
             {
-                CCache cc = (CCache)stored;
-                if (cc.getName().startsWith(tableName))		//	reset lines/dependent too
-                {
-                    //	if (Record_ID == 0)
-                    {
-                        log.info("(all) - " + stored);
-                        total += stored.reset();
-                        counter++;
-                    }
-                }
+                log.info("(all) - " + stored);
+                total += stored.reset();
+            }
+            else
+            {
+                if (log.isDebugEnabled()) log.debug("(" + Record_IDs.length + " records) - " + stored);
+                for (int Record_ID : Record_IDs)
+                    total += stored.reset(Record_ID);
             }
+            counter++;
         }
         log.info(tableName + ": #" + counter + " (" + total + ")");
 
         return total;
-    }	//	reset
+    }	//	resetLocal
 
     /**
      * 	Total Cached Elements
      *	@return count
      */
-    @SuppressWarnings("unchecked")
     public int getElementCount()
     {
         int total = 0;
-        for (int i = 0; i < m_instances.size(); i++)
+        for (ICache stored : getInstances())
         {
-            ICache stored = (ICache) m_instances.get(i);
-            if (stored != null && stored.size() > 0)
+            if (stored.size() > 0)
             {
                 log.info(stored.toString());
                 if (stored instanceof CCache)
-                    total += ((CCache)stored).sizeNoExpire();
+                    total += ((CCache<?,?>)stored).sizeNoExpire();
                 else
                     total += stored.size();
             }
@@ -169,6 +683,29 @@ public class CacheMgt {
         return total;
     }	//	getElementCount
 
+    /**
+     * 	Statistics of all registered Cache
+     *	@return snapshot per cache instance
+     */
+    public List<CacheStats> getCacheStats()
+    {
+        List<CacheStats> list = new ArrayList<CacheStats>();
+        for (ICache stored : getInstances())
+            list.add(stored.getStats());
+        return list;
+    }	//	getCacheStats
+
+    /**
+     * 	Statistics of all registered Cache combined
+     *	@return total of all counters
+     */
+    public CacheStats getTotalStats()
+    {
+        CacheStats total = CacheStats.of("Total", 0);
+        for (CacheStats stats : getCacheStats())
+            total = total.plus(stats, "Total");
+        return total;
+    }	//	getTotalStats
 
     /**
      * 	String Representation
@@ -178,7 +715,7 @@ public class CacheMgt {
     {
         StringBuffer sb = new StringBuffer ("CacheMgt[");
         sb.append("Instances=")
-                .append(m_instances.size())
+                .append(getInstances().size())
                 .append("]");
         return sb.toString ();
     }	//	toString
@@ -191,10 +728,57 @@ public class CacheMgt {
     {
         StringBuffer sb = new StringBuffer ("CacheMgt[");
         sb.append("Instances=")
-                .append(m_instances.size())
+                .append(getInstances().size())
                 .append(", Elements=")
                 .append(getElementCount())
                 .append("]");
         return sb.toString ();
     }	//	toString
+
+    /**
+     * 	Concurrent set of references
+     */
+    private static Set<CacheRef> newRefSet()
+    {
+        return ConcurrentHashMap.newKeySet();
+    }	//	newRefSet
+
+    /**
+     *	Estimated heap and hit rate of a cache when checking the budget
+     */
+    private static final class CacheUsage
+    {
+        private final ICache cache;
+        private final long bytes;
+        private final double hitRate;
+
+        CacheUsage (ICache cache, long bytes, double hitRate)
+        {
+            this.cache = cache;
+            this.bytes = bytes;
+            this.hitRate = hitRate;
+        }
+
+        /**	Hit rate per MB - low values are shrunk first	*/
+        double value()
+        {
+            return hitRate * (1024 * 1024) / bytes;
+        }
+    }	//	CacheUsage
+
+    /**
+     *	Weak reference to registered cache, remembers the name it is indexed by
+     */
+    private static final class CacheRef extends WeakReference<ICache>
+    {
+        private final String name;
+        /**	Management bean or null	*/
+        private volatile ObjectName mbean;
+
+        CacheRef (ICache cache, String name, ReferenceQueue<ICache> queue)
+        {
+            super(cache, queue);
+            this.name = name;
+        }
+    }	//	CacheRef
 }
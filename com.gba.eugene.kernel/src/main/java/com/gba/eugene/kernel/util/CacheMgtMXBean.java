@@ -0,0 +1,58 @@
+package com.gba.eugene.kernel.util;
+
+/**
+ *	Management interface of {@link CacheMgt}, registered as
+ *	<code>com.gba.eugene.kernel:type=CacheMgt</code>.
+ */
+public interface CacheMgtMXBean {
+
+    /**	Number of registered caches	*/
+    public int getInstanceCount();
+
+    /**	Number of cached entries	*/
+    public long getElementCount();
+
+    /**	Names of registered caches	*/
+    public String[] getCacheNames();
+
+    /**	Estimated heap of all caches in bytes	*/
+    public long getEstimatedBytes();
+
+    /**	Heap budget in bytes, 0 if none	*/
+    public long getHeapBudget();
+
+    public void setHeapBudget (long bytes);
+
+    /**	Hits / requests of all caches	*/
+    public double getHitRate();
+
+    /**	Maintenance thread running	*/
+    public boolean isMaintained();
+
+    /**
+     * 	Reset all caches
+     *	@return number of entries cleared
+     */
+    public int reset();
+
+    /**
+     * 	Reset caches of table
+     *	@param tableName table name
+     *	@return number of entries cleared
+     */
+    public int resetTable (String tableName);
+
+    /**
+     * 	Reset entries of record
+     *	@param tableName table name
+     *	@param Record_ID record
+     *	@return number of entries cleared
+     */
+    public int resetRecord (String tableName, int Record_ID);
+
+    /**
+     * 	Shrink caches to the heap budget
+     *	@return bytes freed
+     */
+    public long enforceHeapBudget();
+}
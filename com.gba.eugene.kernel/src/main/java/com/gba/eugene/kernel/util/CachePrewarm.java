@@ -0,0 +1,204 @@
+package com.gba.eugene.kernel.util;
+
+import com.gba.eugene.kernel.exceptions.DBException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *	Fills caches at startup from SQL declared in <code>system.properties</code>:
+ *	<pre>
+ *	CachePrewarm=C_UOM,M_Product
+ *	CachePrewarm.C_UOM=SELECT C_UOM_ID, Name FROM C_UOM WHERE IsActive='Y'
+ *	</pre>
+ *	Each query fills the {@link CCache}s registered under the name, with the key and value objects
+ *	the cache holds as mapped by {@link #setRowMapper(String, RowMapper, RowMapper)}; a cache without
+ *	row mappers is skipped, as raw column values would not match its types.<br/>
+ *	{@link #run()} loads the caches in parallel, at most one query per pooled connection,
+ *	and returns when all are loaded - call it before the node reports ready.
+ */
+public final class CachePrewarm {
+
+    private static final Logger log = LoggerFactory.getLogger(CachePrewarm.class);
+
+    /**	Rows per round trip			*/
+    private static final int	FETCH_SIZE = 1000;
+
+    /**	Key and value mappers by cache name normalized as by {@link CacheMgt}	*/
+    private static final ConcurrentHashMap<String, RowMapper<?>[]> s_mappers = new ConcurrentHashMap<String, RowMapper<?>[]>();
+
+    /**
+     *	Static methods only
+     */
+    private CachePrewarm()
+    {
+    }	//	CachePrewarm
+
+    /**
+     * 	Set Row Mappers of cache
+     *	@param cacheName cache name, matched like the registered name (case, schema and quotes ignored)
+     *	@param keyMapper maps a row to the key
+     *	@param valueMapper maps a row to the value; a null mapper removes the mappers
+     */
+    public static void setRowMapper (String cacheName, RowMapper<?> keyMapper, RowMapper<?> valueMapper)
+    {
+        String key = CacheMgt.normalizeName(cacheName);
+        if (key == null || key.isEmpty())
+            throw new IllegalArgumentException("Required parameter missing - " + cacheName);
+        if (keyMapper == null || valueMapper == null)
+            s_mappers.remove(key);
+        else
+            s_mappers.put(key, new RowMapper<?>[]{keyMapper, valueMapper});
+    }	//	setRowMapper
+
+    /**
+     * 	Prewarm the caches declared in system properties
+     *	@return number of entries loaded
+     */
+    public static int run()
+    {
+        String list = SystemProperties.getProperty(SystemProperties.P_CACHE_PREWARM);
+        if (list.isEmpty())
+            return 0;
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (String name : list.split(","))
+        {
+            String cacheName = name.trim();
+            if (cacheName.isEmpty())
+                continue;
+            String sql = SystemProperties.getProperty(SystemProperties.P_CACHE_PREWARM + "." + cacheName);
+            if (sql.isEmpty())
+            {
+                log.warn(cacheName + ": no SQL");
+                continue;
+            }
+            List<CCache<Object,Object>> caches = getCaches(cacheName);
+            if (caches.isEmpty())
+            {
+                log.warn(cacheName + ": no cache registered");
+                continue;
+            }
+            RowMapper<?>[] mappers = s_mappers.get(CacheMgt.normalizeName(cacheName));
+            if (mappers == null)
+            {
+                log.warn(cacheName + ": no row mapper set - skipped, see CachePrewarm.setRowMapper");
+                continue;
+            }
+            tasks.add(() -> load(cacheName, sql, caches, mappers[0], mappers[1]));
+        }
+        return run(tasks);
+    }	//	run
+
+    /**
+     * 	Run loads in parallel, bounded by the connection pool
+     *	@return number of entries loaded
+     */
+    private static int run (List<Callable<Integer>> tasks)
+    {
+        if (tasks.isEmpty())
+            return 0;
+        long start = System.currentTimeMillis();
+        int threads = Math.min(tasks.size(), DB.getMaxConnections());
+        int total = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "CachePrewarm");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try
+        {
+            for (Future<Integer> future : executor.invokeAll(tasks))
+            {
+                try
+                {
+                    total += future.get();
+                }
+                catch (ExecutionException e)
+                {
+                    log.error("Prewarm failed", e.getCause());
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        log.info("#" + tasks.size() + " caches (" + total + ") in " + (System.currentTimeMillis() - start) + "ms");
+        return total;
+    }	//	run
+
+    /**
+     * 	Registered caches of name
+     */
+    @SuppressWarnings("unchecked")
+    private static List<CCache<Object,Object>> getCaches (String cacheName)
+    {
+        List<CCache<Object,Object>> caches = new ArrayList<CCache<Object,Object>>();
+        for (ICache cache : CacheMgt.get().getInstancesNamed(cacheName))
+        {
+            if (cache instanceof CCache)
+                caches.add((CCache<Object,Object>) cache);
+        }
+        return caches;
+    }	//	getCaches
+
+    /**
+     * 	Load rows into caches, keeping entries cached meanwhile
+     *	@return number of rows loaded
+     */
+    private static int load (String cacheName, String sql, List<CCache<Object,Object>> caches,
+            RowMapper<?> keyMapper, RowMapper<?> valueMapper)
+    {
+        long start = System.currentTimeMillis();
+        int no = 0;
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try
+        {
+            conn = DB.createConnection(false, Connection.TRANSACTION_READ_COMMITTED);
+            conn.setReadOnly(true);
+            pstmt = DB.prepareStatement(conn, sql);
+            pstmt.setFetchSize(FETCH_SIZE);
+            rs = pstmt.executeQuery();
+            while (rs.next())
+            {
+                Object key = keyMapper.map(rs);
+                Object value = valueMapper.map(rs);
+                if (key == null || value == null)
+                    continue;
+                for (CCache<Object,Object> cache : caches)
+                    cache.putIfAbsent(key, value);
+                no++;
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new DBException(e, sql);
+        }
+        finally
+        {
+            DB.close(rs, pstmt);
+            if (conn != null)
+                DB.closeAndResetReadonlyConnection(conn);
+        }
+        log.info(cacheName + ": " + no + " in " + (System.currentTimeMillis() - start) + "ms");
+        return no;
+    }	//	load
+}	//	CachePrewarm
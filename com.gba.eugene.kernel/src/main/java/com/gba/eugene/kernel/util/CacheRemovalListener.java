@@ -0,0 +1,21 @@
+package com.gba.eugene.kernel.util;
+
+/**
+ *	Listener notified when an entry leaves a {@link CCache}.<br/>
+ *	Synchronous listeners run on the thread removing the entry, so they must be short;
+ *	otherwise register them as asynchronous.
+ *	@param <K> key type
+ *	@param <V> value type
+ *	@see CCache#addRemovalListener(CacheRemovalListener, boolean)
+ */
+@FunctionalInterface
+public interface CacheRemovalListener<K,V> {
+
+    /**
+     * 	Entry removed
+     *	@param key key
+     *	@param value value
+     *	@param cause reason of removal
+     */
+    public void onRemoval (K key, V value, RemovalCause cause);
+}
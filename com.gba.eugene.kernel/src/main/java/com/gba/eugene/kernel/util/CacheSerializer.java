@@ -0,0 +1,118 @@
+package com.gba.eugene.kernel.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *	Converts cache values to bytes and back, used by caches storing values outside the Java heap.
+ *	@param <T> value type
+ */
+public interface CacheSerializer<T> {
+
+    /**	UTF-8 Strings				*/
+    public static final CacheSerializer<String> STRING = new CacheSerializer<String>()
+    {
+        @Override
+        public byte[] serialize (String value)
+        {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize (byte[] data)
+        {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**	Integer keys (Record_ID)	*/
+    public static final CacheSerializer<Integer> INTEGER = new CacheSerializer<Integer>()
+    {
+        @Override
+        public byte[] serialize (Integer value)
+        {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+        }
+
+        @Override
+        public Integer deserialize (byte[] data)
+        {
+            return ByteBuffer.wrap(data).getInt();
+        }
+    };
+
+    /**	Long keys					*/
+    public static final CacheSerializer<Long> LONG = new CacheSerializer<Long>()
+    {
+        @Override
+        public byte[] serialize (Long value)
+        {
+            return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+        }
+
+        @Override
+        public Long deserialize (byte[] data)
+        {
+            return ByteBuffer.wrap(data).getLong();
+        }
+    };
+
+    /**
+     * 	Java Serialization - for any {@link Serializable} value; compact custom serializers are preferable
+     *	@return serializer
+     */
+    public static <T extends Serializable> CacheSerializer<T> java()
+    {
+        return new CacheSerializer<T>()
+        {
+            @Override
+            public byte[] serialize (T value)
+            {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(bos))
+                {
+                    oos.writeObject(value);
+                }
+                catch (IOException e)
+                {
+                    throw new IllegalStateException("Cannot serialize " + value, e);
+                }
+                return bos.toByteArray();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T deserialize (byte[] data)
+            {
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data)))
+                {
+                    return (T) ois.readObject();
+                }
+                catch (IOException | ClassNotFoundException e)
+                {
+                    throw new IllegalStateException("Cannot deserialize", e);
+                }
+            }
+        };
+    }	//	java
+
+    /**
+     * 	Serialize value
+     *	@param value value, not null
+     *	@return bytes
+     */
+    public byte[] serialize (T value);
+
+    /**
+     * 	Deserialize value
+     *	@param data bytes created by {@link #serialize(Object)}
+     *	@return value
+     */
+    public T deserialize (byte[] data);
+}
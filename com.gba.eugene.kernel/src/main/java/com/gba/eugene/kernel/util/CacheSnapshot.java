@@ -0,0 +1,284 @@
+package com.gba.eugene.kernel.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *	Binary snapshot of selected caches for warm restarts.<br/>
+ *	{@link #save()} writes the entries of the added caches to a file (via a temporary file, so a
+ *	crash never leaves a partial snapshot); {@link #load()} memory-maps the file and puts the
+ *	entries back into the caches. A snapshot is ignored if its version differs from the version
+ *	of the application or if it is older than the maximum age.
+ *	<pre>
+ *	CacheSnapshot snapshot = new CacheSnapshot(Paths.get("cache.snapshot"), 42, 60);
+ *	snapshot.add(s_cache, CacheSerializer.INTEGER, CacheSerializer.java());
+ *	snapshot.load();
+ *	CacheMgt.get().setSnapshot(snapshot);	//	save on shutdown
+ *	</pre>
+ *	Entries are streamed to the file one by one and restored with their original write time,
+ *	so they expire as if the cache had kept them.<br/>
+ *	File layout: magic, format, version, creation time, number of caches, then per cache its
+ *	name and per entry the write time and the length prefixed key and value bytes,
+ *	ended by a negative write time.
+ */
+public class CacheSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheSnapshot.class);
+
+    /**	File Marker					*/
+    private static final int	MAGIC = 0x4543534E;
+    /**	File Format					*/
+    private static final short	FORMAT = 2;
+    /**	End of entries of a cache	*/
+    private static final long	END = -1;
+
+    /**	Snapshot File				*/
+    private final Path			m_file;
+    /**	Application Version			*/
+    private final int			m_version;
+    /**	Max age in milliseconds		*/
+    private final long			m_maxAgeMS;
+    /**	Caches by name				*/
+    private final Map<String, Entry<?,?>> m_caches = new LinkedHashMap<String, Entry<?,?>>();
+
+    /**
+     * 	Cache Snapshot
+     *	@param file snapshot file
+     *	@param version version of the cached data, e.g. of the application or schema
+     *	@param maxAgeMinutes snapshots older than this are not loaded
+     */
+    public CacheSnapshot (Path file, int version, int maxAgeMinutes)
+    {
+        if (file == null)
+            throw new IllegalArgumentException("No File");
+        m_file = file;
+        m_version = version;
+        m_maxAgeMS = 60000L * Math.max(maxAgeMinutes, 0);
+    }	//	CacheSnapshot
+
+    /**
+     * 	Get Snapshot File
+     *	@return file
+     */
+    public Path getFile()
+    {
+        return m_file;
+    }	//	getFile
+
+    /**
+     * 	Add Cache to snapshot
+     *	@param cache cache with unique name
+     *	@param keySerializer key serializer
+     *	@param valueSerializer value serializer
+     */
+    public synchronized <K,V> void add (CCache<K,V> cache, CacheSerializer<K> keySerializer, CacheSerializer<V> valueSerializer)
+    {
+        if (cache == null || cache.getName() == null)
+            throw new IllegalArgumentException("Cache without name");
+        if (m_caches.containsKey(cache.getName()))
+            throw new IllegalArgumentException("Duplicate cache name: " + cache.getName());
+        m_caches.put(cache.getName(), new Entry<K,V>(cache, keySerializer, valueSerializer));
+    }	//	add
+
+    /**
+     * 	Write snapshot of all added caches
+     *	@return number of entries written
+     *	@throws IOException if the snapshot cannot be written
+     */
+    public synchronized int save() throws IOException
+    {
+        long start = System.currentTimeMillis();
+        Path tmp = m_file.resolveSibling(m_file.getFileName() + ".tmp");
+        int total = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 65536)))
+        {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT);
+            out.writeInt(m_version);
+            out.writeLong(start);
+            out.writeInt(m_caches.size());
+            for (Map.Entry<String, Entry<?,?>> e : m_caches.entrySet())
+            {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+                total += e.getValue().write(out);
+                out.writeLong(END);
+            }
+        }
+        catch (IOException e)
+        {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, m_file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info(m_file + ": saved " + total + " entries of " + m_caches.size() + " caches in "
+                + (System.currentTimeMillis() - start) + "ms");
+        return total;
+    }	//	save
+
+    /**
+     * 	Load snapshot into the added caches.<br/>
+     * 	Entries cached meanwhile are not replaced. Caches not added are skipped.
+     *	@return number of entries loaded, 0 if no valid snapshot exists
+     */
+    public synchronized int load()
+    {
+        if (!Files.isRegularFile(m_file))
+            return 0;
+        long start = System.currentTimeMillis();
+        int total = 0;
+        try (FileChannel channel = FileChannel.open(m_file, StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                log.warn(m_file + ": too large - ignored");
+                return 0;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getShort() != FORMAT)
+            {
+                log.warn(m_file + ": not a cache snapshot - ignored");
+                return 0;
+            }
+            int version = buffer.getInt();
+            long created = buffer.getLong();
+            if (version != m_version)
+            {
+                log.info(m_file + ": version " + version + " <> " + m_version + " - ignored");
+                return 0;
+            }
+            if (m_maxAgeMS > 0 && start - created > m_maxAgeMS)
+            {
+                log.info(m_file + ": " + ((start - created) / 60000) + " minutes old - ignored");
+                return 0;
+            }
+            int caches = buffer.getInt();
+            for (int c = 0; c < caches; c++)
+            {
+                byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(name);
+                Entry<?,?> entry = m_caches.get(new String(name, StandardCharsets.UTF_8));
+                long writeTime;
+                while ((writeTime = buffer.getLong()) >= 0)
+                {
+                    byte[] key = next(buffer);
+                    byte[] value = next(buffer);
+                    if (entry != null && entry.put(key, value, writeTime))
+                        total++;
+                }
+            }
+        }
+        catch (IOException | BufferUnderflowException | IllegalArgumentException e)
+        {
+            log.warn(m_file + ": cannot load - " + e);
+            return total;
+        }
+        log.info(m_file + ": loaded " + total + " entries in " + (System.currentTimeMillis() - start) + "ms");
+        return total;
+    }	//	load
+
+    /**
+     * 	Read length prefixed bytes
+     */
+    private static byte[] next (MappedByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("Invalid length " + length);
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return data;
+    }	//	next
+
+    /**
+     * 	String Representation
+     * 	@return info
+     */
+    @Override
+    public String toString()
+    {
+        return "CacheSnapshot[" + m_file + ",Version=" + m_version + ",Caches=" + m_caches.keySet() + "]";
+    }	//	toString
+
+    /**
+     *	Cache with its serializers
+     */
+    private static final class Entry<K,V>
+    {
+        private final CCache<K,V> cache;
+        private final CacheSerializer<K> keySerializer;
+        private final CacheSerializer<V> valueSerializer;
+
+        Entry (CCache<K,V> cache, CacheSerializer<K> keySerializer, CacheSerializer<V> valueSerializer)
+        {
+            this.cache = cache;
+            this.keySerializer = keySerializer;
+            this.valueSerializer = valueSerializer;
+        }
+
+        /**
+         * 	Write entries with their write time - expired entries are dropped on load
+         *	@return number of entries written
+         */
+        int write (DataOutputStream out) throws IOException
+        {
+            int no = 0;
+            int skipped = 0;
+            for (CCache.Node<K,V> node : cache.getNodes())
+            {
+                byte[] key;
+                byte[] value;
+                try
+                {
+                    key = keySerializer.serialize(node.key);
+                    value = valueSerializer.serialize(node.value);
+                }
+                catch (RuntimeException ex)
+                {
+                    skipped++;
+                    continue;
+                }
+                out.writeLong(node.writeTime);
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeInt(value.length);
+                out.write(value);
+                no++;
+            }
+            if (skipped > 0)
+                log.warn(cache.getName() + ": " + skipped + " entries not serializable - skipped");
+            return no;
+        }
+
+        /**
+         * 	Put entry with its write time unless cached meanwhile or expired
+         *	@return true if added
+         */
+        boolean put (byte[] key, byte[] value, long writeTime)
+        {
+            try
+            {
+                return cache.restore(keySerializer.deserialize(key), valueSerializer.deserialize(value), writeTime);
+            }
+            catch (RuntimeException e)
+            {
+                return false;
+            }
+        }
+    }	//	Entry
+}	//	CacheSnapshot
@@ -0,0 +1,183 @@
+package com.gba.eugene.kernel.util;
+
+import java.io.Serializable;
+
+/**
+ *	Statistics snapshot of a cache.<br/>
+ *	Counters are cumulative since the cache was created; they are not cleared by a reset.
+ */
+public final class CacheStats implements Serializable {
+
+    private static final long serialVersionUID = 6305478140282736015L;
+
+    /**	Cache Name					*/
+    private final String	m_name;
+    /**	Entries						*/
+    private final long		m_size;
+    /**	Lookups returning a value	*/
+    private final long		m_hitCount;
+    /**	Lookups returning null		*/
+    private final long		m_missCount;
+    /**	Loads returning a value		*/
+    private final long		m_loadSuccessCount;
+    /**	Loads returning null or failing	*/
+    private final long		m_loadFailureCount;
+    /**	Time spent loading in ns	*/
+    private final long		m_totalLoadTime;
+    /**	Entries evicted by size		*/
+    private final long		m_evictionCount;
+    /**	Entries expired				*/
+    private final long		m_expirationCount;
+
+    /**
+     * 	Stats Constructor
+     *	@param name cache name
+     *	@param size current number of entries
+     *	@param hitCount lookups returning a value
+     *	@param missCount lookups returning null
+     *	@param loadSuccessCount loads returning a value
+     *	@param loadFailureCount loads returning null or throwing an exception
+     *	@param totalLoadTime time spent loading in nanoseconds
+     *	@param evictionCount entries evicted by size or weight
+     *	@param expirationCount entries expired
+     */
+    public CacheStats (String name, long size, long hitCount, long missCount,
+            long loadSuccessCount, long loadFailureCount, long totalLoadTime,
+            long evictionCount, long expirationCount)
+    {
+        m_name = name;
+        m_size = size;
+        m_hitCount = hitCount;
+        m_missCount = missCount;
+        m_loadSuccessCount = loadSuccessCount;
+        m_loadFailureCount = loadFailureCount;
+        m_totalLoadTime = totalLoadTime;
+        m_evictionCount = evictionCount;
+        m_expirationCount = expirationCount;
+    }	//	CacheStats
+
+    /**
+     * 	Stats of a cache without counters
+     *	@param name cache name
+     *	@param size current number of entries
+     *	@return stats with size only
+     */
+    public static CacheStats of (String name, long size)
+    {
+        return new CacheStats(name, size, 0, 0, 0, 0, 0, 0, 0);
+    }	//	of
+
+    /**
+     * 	Sum of this and other stats
+     *	@param other other stats
+     *	@param name name of result
+     *	@return combined stats
+     */
+    public CacheStats plus (CacheStats other, String name)
+    {
+        return new CacheStats(name,
+                m_size + other.m_size,
+                m_hitCount + other.m_hitCount,
+                m_missCount + other.m_missCount,
+                m_loadSuccessCount + other.m_loadSuccessCount,
+                m_loadFailureCount + other.m_loadFailureCount,
+                m_totalLoadTime + other.m_totalLoadTime,
+                m_evictionCount + other.m_evictionCount,
+                m_expirationCount + other.m_expirationCount);
+    }	//	plus
+
+    public String getName()
+    {
+        return m_name;
+    }
+
+    public long getSize()
+    {
+        return m_size;
+    }
+
+    public long getHitCount()
+    {
+        return m_hitCount;
+    }
+
+    public long getMissCount()
+    {
+        return m_missCount;
+    }
+
+    public long getRequestCount()
+    {
+        return m_hitCount + m_missCount;
+    }
+
+    public long getLoadSuccessCount()
+    {
+        return m_loadSuccessCount;
+    }
+
+    public long getLoadFailureCount()
+    {
+        return m_loadFailureCount;
+    }
+
+    /**
+     * 	Get Total Load Time
+     *	@return nanoseconds spent in loaders
+     */
+    public long getTotalLoadTime()
+    {
+        return m_totalLoadTime;
+    }
+
+    public long getEvictionCount()
+    {
+        return m_evictionCount;
+    }
+
+    public long getExpirationCount()
+    {
+        return m_expirationCount;
+    }
+
+    /**
+     * 	Get Hit Rate
+     *	@return hits / requests or 1 if there were no requests
+     */
+    public double getHitRate()
+    {
+        long requests = getRequestCount();
+        return requests == 0 ? 1.0 : (double) m_hitCount / requests;
+    }	//	getHitRate
+
+    /**
+     * 	Get Average Load Penalty
+     *	@return average nanoseconds per load
+     */
+    public double getAverageLoadPenalty()
+    {
+        long loads = m_loadSuccessCount + m_loadFailureCount;
+        return loads == 0 ? 0.0 : (double) m_totalLoadTime / loads;
+    }	//	getAverageLoadPenalty
+
+    /**
+     * 	String Representation
+     * 	@return info
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("CacheStats[");
+        sb.append(m_name)
+                .append(",#").append(m_size)
+                .append(",Hit=").append(m_hitCount)
+                .append(",Miss=").append(m_missCount)
+                .append(",HitRate=").append(Math.round(getHitRate() * 1000) / 10.0).append("%")
+                .append(",Load=").append(m_loadSuccessCount).append("/").append(m_loadFailureCount)
+                .append(",AvgLoadMS=").append(Math.round(getAverageLoadPenalty() / 1000) / 1000.0)
+                .append(",Evicted=").append(m_evictionCount)
+                .append(",Expired=").append(m_expirationCount)
+                .append("]");
+        return sb.toString();
+    }	//	toString
+}	//	CacheStats
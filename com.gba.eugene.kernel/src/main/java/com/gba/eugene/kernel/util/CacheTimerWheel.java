@@ -0,0 +1,226 @@
+package com.gba.eugene.kernel.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ *	Hierarchical timer wheel scheduling the expiry of {@link CCache} entries.<br/>
+ *	Each level has 64 buckets; a bucket covers about 1 second, 1 minute, 1 hour and 3 days
+ *	(powers of 2 ms) on the levels 0 to 3. Entries are linked into the bucket of their expiry
+ *	time on the lowest level within one turn from now. {@link #advance(long)} is called by the
+ *	maintenance thread of {@link CacheMgt}; it visits the buckets reached since the last call,
+ *	returns the entries that have expired and moves the others down to a finer level.<br/>
+ *	Scheduling is O(1); entries expire at most one bucket (about a second) late.
+ */
+final class CacheTimerWheel<K,V> {
+
+    /**	Bucket span per level as bit shift of milliseconds	*/
+    private static final int[]	SHIFT = new int[]{10, 16, 22, 28};
+    /**	Buckets per level (power of 2)	*/
+    private static final int	BUCKETS = 64;
+
+    /**	Wheel Lock					*/
+    private final ReentrantLock	m_lock = new ReentrantLock();
+    /**	Bucket sentinels per level	*/
+    private final CCache.Node<K,V>[][] m_wheel;
+    /**	Expiry time of entry, Long.MAX_VALUE if it does not expire	*/
+    private final ToLongFunction<CCache.Node<K,V>> m_expiry;
+    /**	Time of last advance		*/
+    private long				m_time;
+
+    /**
+     * 	Timer Wheel
+     *	@param expiry returns the expiry time of an entry
+     */
+    CacheTimerWheel (ToLongFunction<CCache.Node<K,V>> expiry)
+    {
+        m_expiry = expiry;
+        m_time = CacheMgt.nowMillis();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CCache.Node<K,V>[][] wheel = new CCache.Node[SHIFT.length][BUCKETS];
+        m_wheel = wheel;
+        for (int i = 0; i < SHIFT.length; i++)
+        {
+            for (int j = 0; j < BUCKETS; j++)
+            {
+                CCache.Node<K,V> sentinel = new CCache.Node<K,V>(null, null, 0, 0);
+                sentinel.timerPrev = sentinel;
+                sentinel.timerNext = sentinel;
+                m_wheel[i][j] = sentinel;
+            }
+        }
+    }	//	CacheTimerWheel
+
+    /**
+     * 	Replace scheduled entry
+     *	@param old entry to unschedule or null
+     *	@param node entry to schedule or null
+     */
+    void replace (CCache.Node<K,V> old, CCache.Node<K,V> node)
+    {
+        m_lock.lock();
+        try
+        {
+            if (old != null)
+                unlink(old);
+            if (node != null)
+                schedule(node);
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }	//	replace
+
+    /**
+     * 	Schedule entries again, after the expiry settings changed
+     *	@param nodes current entries
+     */
+    void rescheduleAll (Collection<CCache.Node<K,V>> nodes)
+    {
+        m_lock.lock();
+        try
+        {
+            for (CCache.Node<K,V> node : nodes)
+            {
+                unlink(node);
+                schedule(node);
+            }
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }	//	rescheduleAll
+
+    /**
+     * 	Unschedule all entries
+     */
+    void clear()
+    {
+        m_lock.lock();
+        try
+        {
+            for (CCache.Node<K,V>[] level : m_wheel)
+            {
+                for (CCache.Node<K,V> sentinel : level)
+                {
+                    CCache.Node<K,V> node = sentinel.timerNext;
+                    while (node != sentinel)
+                    {
+                        CCache.Node<K,V> next = node.timerNext;
+                        node.timerPrev = null;
+                        node.timerNext = null;
+                        node = next;
+                    }
+                    sentinel.timerPrev = sentinel;
+                    sentinel.timerNext = sentinel;
+                }
+            }
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }	//	clear
+
+    /**
+     * 	Advance wheel to time
+     *	@param now current time
+     *	@return expired entries, no longer scheduled
+     */
+    List<CCache.Node<K,V>> advance (long now)
+    {
+        List<CCache.Node<K,V>> expired = new ArrayList<CCache.Node<K,V>>();
+        m_lock.lock();
+        try
+        {
+            long previous = m_time;
+            if (now <= previous)
+                return expired;
+            m_time = now;
+            for (int i = 0; i < SHIFT.length; i++)
+            {
+                long previousTicks = previous >>> SHIFT[i];
+                long delta = (now >>> SHIFT[i]) - previousTicks;
+                if (delta <= 0)
+                    break;
+                int count = (int) Math.min(delta, BUCKETS);
+                for (int j = 1; j <= count; j++)
+                {
+                    CCache.Node<K,V> sentinel = m_wheel[i][(int) ((previousTicks + j) & (BUCKETS - 1))];
+                    CCache.Node<K,V> node = sentinel.timerNext;
+                    sentinel.timerPrev = sentinel;
+                    sentinel.timerNext = sentinel;
+                    while (node != sentinel)
+                    {
+                        CCache.Node<K,V> next = node.timerNext;
+                        node.timerPrev = null;
+                        node.timerNext = null;
+                        if (m_expiry.applyAsLong(node) <= now)
+                            expired.add(node);
+                        else
+                            schedule(node);		//	not due yet or accessed meanwhile
+                        node = next;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+        return expired;
+    }	//	advance
+
+    /**
+     * 	Link entry into bucket of its expiry - called with lock held
+     */
+    private void schedule (CCache.Node<K,V> node)
+    {
+        long time = m_expiry.applyAsLong(node);
+        if (time == Long.MAX_VALUE)
+            return;
+        CCache.Node<K,V> sentinel = findBucket(time);
+        node.timerNext = sentinel;
+        node.timerPrev = sentinel.timerPrev;
+        sentinel.timerPrev.timerNext = node;
+        sentinel.timerPrev = node;
+    }	//	schedule
+
+    /**
+     * 	Unlink entry if scheduled - called with lock held
+     */
+    private void unlink (CCache.Node<K,V> node)
+    {
+        if (node.timerNext == null)
+            return;
+        node.timerPrev.timerNext = node.timerNext;
+        node.timerNext.timerPrev = node.timerPrev;
+        node.timerPrev = null;
+        node.timerNext = null;
+    }	//	unlink
+
+    /**
+     * 	Bucket for expiry time: on the lowest level less than one turn ahead.
+     * 	Entries due within the current tick go to the next bucket of level 0.
+     */
+    private CCache.Node<K,V> findBucket (long time)
+    {
+        for (int i = 0; i < SHIFT.length; i++)
+        {
+            long ticks = time >>> SHIFT[i];
+            long current = m_time >>> SHIFT[i];
+            if (i == 0 && ticks <= current)
+                return m_wheel[0][(int) ((current + 1) & (BUCKETS - 1))];
+            if (ticks - current < BUCKETS)
+                return m_wheel[i][(int) (ticks & (BUCKETS - 1))];
+        }
+        //	beyond last level - rescheduled when reached
+        long current = m_time >>> SHIFT[SHIFT.length - 1];
+        return m_wheel[SHIFT.length - 1][(int) ((current + BUCKETS - 1) & (BUCKETS - 1))];
+    }	//	findBucket
+}	//	CacheTimerWheel
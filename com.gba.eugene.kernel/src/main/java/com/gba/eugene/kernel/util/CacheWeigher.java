@@ -0,0 +1,18 @@
+package com.gba.eugene.kernel.util;
+
+/**
+ *	Calculates the weight of a cache entry, used by caches bounded by a maximum weight.
+ *	@param <K> key type
+ *	@param <V> value type
+ */
+@FunctionalInterface
+public interface CacheWeigher<K,V> {
+
+    /**
+     * 	Get Weight of entry
+     *	@param key key
+     *	@param value value
+     *	@return weight, must not be negative
+     */
+    public int weigh (K key, V value);
+}
@@ -11,7 +11,23 @@ import org.slf4j.LoggerFactory;
 import javax.sql.RowSet;
 import java.math.BigDecimal;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public final class DB {
     /** Logger */
@@ -20,9 +36,17 @@ public final class DB {
     private static DatabaseConnection s_cc = null;
     /** Lock Object */
     private static Object s_ccLock = new Object();
+    /** Query Result Cache - null if disabled */
+    private static volatile QueryCache s_queryCache = null;
+    /** Executor of async calls - one virtual thread per call */
+    private static final ExecutorService s_asyncExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    /** Permits of concurrent async calls - sized to the connection pool, null until used */
+    private static volatile Semaphore s_asyncPermits = null;
 
     /** SQL Statement Separator "; "	*/
     public static final String SQLSTATEMENT_SEPARATOR = "; ";
+    /** Maximum number of IDs bound to one array parameter */
+    public static final int BULK_CHUNK_SIZE = 1000;
 
     public synchronized static void setDBTarget(DatabaseConnection cc){
         if(cc == null)
@@ -35,6 +59,7 @@ public final class DB {
 
         synchronized (s_ccLock){
             s_cc = cc;
+            s_asyncPermits = null;
         }
 
         s_cc.setDataSource();
@@ -120,6 +145,25 @@ public final class DB {
         return null;
     }
 
+    /**
+     * Get maximum number of pooled connections
+     * @return pool size, at least 1
+     */
+    public static int getMaxConnections(){
+        DatabaseConnection cc = s_cc;
+        SystemDatabase db = cc != null ? cc.getDatabase() : null;
+        if (db == null)
+            return 1;
+        int size = db.getMaxConnections();
+        if (size == 0)
+        {
+            //	pool is created with the first connection
+            db.getDataSource(cc);
+            size = db.getMaxConnections();
+        }
+        return Math.max(size, 1);
+    }
+
     public static SystemDatabase getDatabase(String url){
         return Database.getDatabaseFromURL(url);
     }
@@ -348,6 +392,8 @@ public final class DB {
             pstmt.setBytes(index, (byte[]) param);
         else if (param instanceof Clob)
             pstmt.setClob(index, (Clob) param);
+        else if (param instanceof Array)
+            pstmt.setArray(index, (Array) param);
         else if (param.getClass().getName().equals("oracle.sql.BLOB"))
             pstmt.setObject(index, param);
         else
@@ -559,6 +605,100 @@ public final class DB {
         return no;
     }
 
+    /**
+     * Execute statement once per parameter set, sent to the database in JDBC batches.<br/>
+     * Without transaction, all batches run on one connection and are committed together.
+     * On PostgreSQL, batched inserts are sent as multi-row inserts if the pool is configured with
+     * <code>dataSource.reWriteBatchedInserts=true</code> in hikaricp.properties; this applies to
+     * all batches of the pool, which then report Statement.SUCCESS_NO_INFO for inserts.
+     * @param sql sql with parameters
+     * @param params parameters per execution
+     * @param trxName optional transaction name
+     * @param batchSize parameter sets per batch
+     * @return number of rows updated per batch, or Statement.SUCCESS_NO_INFO if the driver
+     *  did not report it (rewritten inserts)
+     * @throws DBException if there is any SQLException
+     */
+    public static int[] executeBatchEx (String sql, List<Object[]> params, String trxName, int batchSize) throws DBException
+    {
+        if (sql == null || sql.length() == 0)
+            throw new IllegalArgumentException("Required parameter missing - " + sql);
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be positive");
+        if (params == null || params.isEmpty())
+            return new int[0];
+        //
+        verifyTrx(trxName);
+        int[] retValue = new int[(params.size() + batchSize - 1) / batchSize];
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        try
+        {
+            if (trxName == null)
+            {
+                conn = DB.createConnection(false, Connection.TRANSACTION_READ_COMMITTED);
+                pstmt = prepareStatement(conn, sql);
+            }
+            else
+                pstmt = prepareStatement(sql, trxName);
+            int batch = 0;
+            for (int i = 0; i < params.size(); i++)
+            {
+                setParameters(pstmt, params.get(i));
+                pstmt.addBatch();
+                if ((i + 1) % batchSize == 0 || i + 1 == params.size())
+                    retValue[batch++] = getUpdateCount(pstmt.executeBatch());
+            }
+            if (conn != null)
+                conn.commit();
+        }
+        catch (SQLException e)
+        {
+            if (conn != null)
+            {
+                try {
+                    conn.rollback();
+                } catch (SQLException e1) {
+                    e1.printStackTrace();
+                }
+            }
+            SQLException next = e.getNextException();
+            log.error(sql + (next != null ? " - " + next.getMessage() : ""), e);
+            throw new DBException(e, sql);
+        }
+        finally
+        {
+            close(pstmt);
+            pstmt = null;
+            if (conn != null)
+            {
+                try {
+                    conn.setAutoCommit(true);
+                    conn.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * Total of batch update counts
+     * @return rows updated or Statement.SUCCESS_NO_INFO
+     */
+    private static int getUpdateCount (int[] counts)
+    {
+        int total = 0;
+        for (int count : counts)
+        {
+            if (count == Statement.SUCCESS_NO_INFO)
+                return Statement.SUCCESS_NO_INFO;
+            total += count;
+        }
+        return total;
+    }
+
     /**
      *	Execute multiple Update statements.<br/>
      *  Saves (last) "DBExecuteError" in Log.
@@ -733,14 +873,33 @@ public final class DB {
 
 
     /**
-     * Get int Value from sql
+     * Get int Value from sql.<br/>
+     * Without transaction, the result is cached if the query cache is enabled.
      * @param trxName optional transaction name
      * @param sql
      * @param params array of parameters
      * @return first value or -1 if not found
      * @throws DBException if there is any SQLException
+     * @see #enableQueryCache(int, int)
      */
     public static int getSQLValueEx (String trxName, String sql, Object... params) throws DBException
+    {
+        QueryCache queryCache = s_queryCache;
+        if (queryCache == null)
+            return getSQLValueNoCache(trxName, sql, params);
+        Integer retValue = queryCache.get(trxName, sql, params, () -> getSQLValueNoCache(trxName, sql, params));
+        return retValue.intValue();
+    }
+
+    /**
+     * Get int Value from sql, bypassing the query cache
+     * @param trxName optional transaction name
+     * @param sql
+     * @param params array of parameters
+     * @return first value or -1 if not found
+     * @throws DBException if there is any SQLException
+     */
+    private static int getSQLValueNoCache (String trxName, String sql, Object... params) throws DBException
     {
         int retValue = -1;
         PreparedStatement pstmt = null;
@@ -791,6 +950,281 @@ public final class DB {
         return retValue;
     }
 
+    /**
+     * Get rows by ID with one array bound query per chunk of {@link #BULK_CHUNK_SIZE} IDs,
+     * e.g. <code>SELECT * FROM C_OrderLine WHERE C_OrderLine_ID = ANY(?)</code>
+     * @param trxName optional transaction name
+     * @param sql sql with a single array parameter
+     * @param arrayType SQL type of the array elements, e.g. "numeric"
+     * @param ids IDs
+     * @param keyMapper maps a row to its ID
+     * @param valueMapper maps a row to its value
+     * @return values by ID, IDs not found are omitted
+     * @throws DBException if there is any SQLException
+     */
+    public static <K,V> Map<K,V> getAllEx (String trxName, String sql, String arrayType, Collection<? extends K> ids,
+            RowMapper<? extends K> keyMapper, RowMapper<? extends V> valueMapper) throws DBException
+    {
+        Map<K,V> retValue = new HashMap<K,V>(ids.size() * 2);
+        if (ids.isEmpty())
+            return retValue;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        Connection conn = null;
+        boolean readOnly = trxName == null;
+        try
+        {
+            if (readOnly)
+            {
+                conn = DB.createConnection(true, Connection.TRANSACTION_READ_COMMITTED);
+                conn.setAutoCommit(false);
+                conn.setReadOnly(true);
+            }
+            else
+            {
+                verifyTrx(trxName);
+                TransactionManager trx = TransactionManager.get(trxName, false);
+                conn = trx != null ? trx.getConnection() : null;
+            }
+            if (conn == null)
+                throw new DBException("No Connection");
+            pstmt = prepareStatement(conn, sql);
+            List<Object> chunk = new ArrayList<Object>(Math.min(ids.size(), BULK_CHUNK_SIZE));
+            int count = 0;
+            for (K id : ids)
+            {
+                chunk.add(id);
+                if (++count < ids.size() && chunk.size() < BULK_CHUNK_SIZE)
+                    continue;
+                Array array = conn.createArrayOf(arrayType, chunk.toArray());
+                try
+                {
+                    pstmt.setArray(1, array);
+                    rs = pstmt.executeQuery();
+                    while (rs.next())
+                        retValue.put(keyMapper.map(rs), valueMapper.map(rs));
+                    close(rs);
+                    rs = null;
+                }
+                finally
+                {
+                    array.free();
+                }
+                chunk.clear();
+            }
+        }
+        catch (SQLException e)
+        {
+            if (readOnly && conn != null)
+            {
+                try {
+                    conn.rollback();
+                } catch (SQLException e1) {
+                    e1.printStackTrace();
+                }
+            }
+            throw new DBException(e, sql);
+        }
+        finally
+        {
+            close(rs, pstmt);
+            rs = null; pstmt = null;
+            if (readOnly && conn != null)
+            {
+                closeAndResetReadonlyConnection(conn);
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * Bulk Loader for {@link CCache#getAll(Collection, Function)} reading the missing keys
+     * with {@link #getAllEx(String, String, String, Collection, RowMapper, RowMapper)}
+     * <pre>
+     * s_cache.getAll(lineIds, DB.bulkLoader("SELECT * FROM C_OrderLine WHERE C_OrderLine_ID = ANY(?)",
+     *     "numeric", rs -> rs.getInt("C_OrderLine_ID"), MOrderLine::new));
+     * </pre>
+     * @param sql sql with a single array parameter
+     * @param arrayType SQL type of the array elements
+     * @param keyMapper maps a row to its key
+     * @param valueMapper maps a row to its value
+     * @return loader
+     */
+    public static <K,V> Function<Set<K>, Map<K,V>> bulkLoader (String sql, String arrayType,
+            RowMapper<? extends K> keyMapper, RowMapper<? extends V> valueMapper)
+    {
+        return ids -> getAllEx(null, sql, arrayType, ids, keyMapper, valueMapper);
+    }
+
+    /**
+     * Stream query result, fetched incrementally by a server side cursor.<br/>
+     * The query runs on its own read-only connection without auto commit (required for the
+     * cursor), which is released when the stream is closed or read to the end - use
+     * try-with-resources:
+     * <pre>
+     * try (Stream&lt;MProduct&gt; products = DB.stream(sql, params, MProduct::new, 1000)) {
+     *     products.forEach(...);
+     * }
+     * </pre>
+     * @param sql sql
+     * @param params parameters
+     * @param mapper maps the current row
+     * @param fetchSize rows per round trip
+     * @return lazily fetched stream of mapped rows
+     * @throws DBException if there is any SQLException, also when reading the stream
+     */
+    public static <T> Stream<T> stream (String sql, Object[] params, RowMapper<? extends T> mapper, int fetchSize) throws DBException
+    {
+        if (sql == null || sql.length() == 0)
+            throw new IllegalArgumentException("Required parameter missing - " + sql);
+        Cursor<T> cursor = new Cursor<T>(sql, mapper);
+        try
+        {
+            cursor.conn = DB.createConnection(false, Connection.TRANSACTION_READ_COMMITTED);
+            cursor.conn.setReadOnly(true);
+            cursor.pstmt = prepareStatement(cursor.conn, sql);
+            cursor.pstmt.setFetchSize(Math.max(fetchSize, 1));
+            setParameters(cursor.pstmt, params);
+            cursor.rs = cursor.pstmt.executeQuery();
+        }
+        catch (SQLException e)
+        {
+            cursor.close();
+            throw new DBException(e, sql);
+        }
+        catch (RuntimeException e)
+        {
+            cursor.close();
+            throw e;
+        }
+        return StreamSupport.stream(cursor, false).onClose(cursor::close);
+    }
+
+    /**
+     * Run database call asynchronously on a virtual thread.<br/>
+     * At most as many calls as the pool has connections run at the same time; the others
+     * wait on their virtual thread, not on the pool.
+     * @param call database call
+     * @return future of the result
+     */
+    public static <T> CompletableFuture<T> runAsync (Supplier<T> call)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            Semaphore permits = getAsyncPermits();
+            try
+            {
+                permits.acquire();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new DBException("Interrupted");
+            }
+            try
+            {
+                return call.get();
+            }
+            finally
+            {
+                permits.release();
+            }
+        }, s_asyncExecutor);
+    }
+
+    /**
+     * Get int Value from sql asynchronously
+     * @param trxName optional transaction name - its connection must not be used meanwhile
+     * @param sql
+     * @param params array of parameters
+     * @return future of first value or -1 if not found, completed exceptionally with DBException
+     * @see #getSQLValueEx(String, String, Object...)
+     */
+    public static CompletableFuture<Integer> getSQLValueAsync (String trxName, String sql, Object... params)
+    {
+        return runAsync(() -> getSQLValueEx(trxName, sql, params));
+    }
+
+    /**
+     * Execute update asynchronously
+     * @param sql
+     * @param params statement parameters
+     * @param trxName optional transaction name - its connection must not be used meanwhile
+     * @return future of number of rows updated, completed exceptionally with DBException
+     * @see #executeUpdateEx(String, Object[], String)
+     */
+    public static CompletableFuture<Integer> executeUpdateAsync (String sql, Object[] params, String trxName)
+    {
+        return runAsync(() -> executeUpdateEx(sql, params, trxName));
+    }
+
+    /**
+     * Get Row Set asynchronously
+     * @param sql
+     * @return future of row set
+     * @see #getRowSet(String)
+     */
+    public static CompletableFuture<RowSet> getRowSetAsync (String sql)
+    {
+        return runAsync(() -> getRowSet(sql));
+    }
+
+    /**
+     * Permits of async calls, one per pooled connection
+     */
+    private static Semaphore getAsyncPermits ()
+    {
+        Semaphore permits = s_asyncPermits;
+        if (permits == null)
+        {
+            synchronized (s_ccLock)
+            {
+                permits = s_asyncPermits;
+                if (permits == null)
+                {
+                    permits = new Semaphore(getMaxConnections(), true);
+                    s_asyncPermits = permits;
+                }
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Enable Query Result Cache for queries without transaction.<br/>
+     * Results are invalidated by {@link CacheMgt#reset(String)} of the tables read.
+     * @param maxSize maximum number of results
+     * @param expireMinutes expire results after minutes or 0
+     * @return query cache
+     */
+    public static synchronized QueryCache enableQueryCache (int maxSize, int expireMinutes)
+    {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize must be positive");
+        if (s_queryCache != null)
+            s_queryCache.clear();
+        s_queryCache = new QueryCache(maxSize, expireMinutes);
+        return s_queryCache;
+    }
+
+    /**
+     * Disable Query Result Cache
+     */
+    public static synchronized void disableQueryCache ()
+    {
+        if (s_queryCache != null)
+            s_queryCache.clear();
+        s_queryCache = null;
+    }
+
+    /**
+     * Get Query Result Cache
+     * @return query cache or null if disabled
+     */
+    public static QueryCache getQueryCache ()
+    {
+        return s_queryCache;
+    }
+
     private static void verifyTrx(String trxName) {
         if (trxName != null && TransactionManager.get(trxName, false) == null) {
             // Using a trx that was previously closed or never opened
@@ -799,4 +1233,68 @@ public final class DB {
         }
     }
 
+    /**
+     * Open cursor of {@link #stream(String, Object[], RowMapper, int)}
+     */
+    private static final class Cursor<T> extends Spliterators.AbstractSpliterator<T>
+    {
+        private final String sql;
+        private final RowMapper<? extends T> mapper;
+        private Connection conn = null;
+        private PreparedStatement pstmt = null;
+        private ResultSet rs = null;
+        private boolean closed = false;
+
+        Cursor (String sql, RowMapper<? extends T> mapper)
+        {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.sql = sql;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean tryAdvance (Consumer<? super T> action)
+        {
+            if (closed)
+                return false;
+            try
+            {
+                if (!rs.next())
+                {
+                    close();
+                    return false;
+                }
+                action.accept(mapper.map(rs));
+                return true;
+            }
+            catch (SQLException e)
+            {
+                close();
+                throw new DBException(e, sql);
+            }
+        }
+
+        /**
+         * Release cursor and connection
+         */
+        synchronized void close()
+        {
+            if (closed)
+                return;
+            closed = true;
+            DB.close(rs, pstmt);
+            rs = null; pstmt = null;
+            if (conn != null)
+            {
+                try {
+                    conn.rollback();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+                closeAndResetReadonlyConnection(conn);
+                conn = null;
+            }
+        }
+    }
+
 }
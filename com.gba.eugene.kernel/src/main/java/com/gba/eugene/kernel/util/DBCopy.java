@@ -0,0 +1,396 @@
+package com.gba.eugene.kernel.util;
+
+import com.gba.eugene.kernel.exceptions.DBException;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOut;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Iterator;
+
+/**
+ *	Bulk load into and export from PostgreSQL with <code>COPY</code>.<br/>
+ *	{@link #copyIn(String, String[], Iterator, String)} encodes rows as CSV with the type mapping of
+ *	{@link DB#setParameter(java.sql.PreparedStatement, int, Object)} and streams them through a fixed
+ *	size buffer, so memory does not grow with the number of rows.
+ *	Without transaction the load runs on its own connection and is committed at the end;
+ *	with a transaction it becomes part of it.<br/>
+ *	{@link #copyOut(String, Format, OutputStream, String)} writes the result of a query as CSV or
+ *	PostgreSQL binary format straight to a stream or file, without building rows in memory.
+ */
+public final class DBCopy {
+
+    private static final Logger log = LoggerFactory.getLogger(DBCopy.class);
+
+    /**	Bytes sent per write		*/
+    private static final int	BUFFER_SIZE = 65536;
+
+    /**
+     *	Data format of COPY
+     */
+    public enum Format
+    {
+        /**	CSV with header line	*/
+        CSV,
+        /**	PostgreSQL binary format	*/
+        BINARY
+    }	//	Format
+
+    /**
+     *	Static methods only
+     */
+    private DBCopy()
+    {
+    }	//	DBCopy
+
+    /**
+     * 	Copy rows into table
+     *	@param tableName table
+     *	@param columns columns of the row values
+     *	@param rows rows, values in the order of columns
+     *	@param trxName optional transaction name
+     *	@return number of rows copied
+     *	@throws DBException if there is any SQLException or unknown value type
+     */
+    public static long copyIn (String tableName, String[] columns, Iterator<Object[]> rows, String trxName) throws DBException
+    {
+        String sql = getCopySQL(tableName, columns);
+        return execute(sql, trxName, false, copyManager -> {
+            CopyIn copyIn = copyManager.copyIn(sql);
+            try
+            {
+                StringBuilder sb = new StringBuilder();
+                while (rows.hasNext())
+                {
+                    Object[] row = rows.next();
+                    if (row.length != columns.length)
+                        throw new DBException("Row with " + row.length + " values for " + columns.length + " columns");
+                    for (int i = 0; i < row.length; i++)
+                    {
+                        if (i > 0)
+                            sb.append(',');
+                        encode(sb, i + 1, row[i]);
+                    }
+                    sb.append('\n');
+                    if (sb.length() >= BUFFER_SIZE / 4)
+                        write(copyIn, sb);
+                }
+                write(copyIn, sb);
+                return copyIn.endCopy();
+            }
+            finally
+            {
+                if (copyIn.isActive())
+                    copyIn.cancelCopy();
+            }
+        });
+    }	//	copyIn
+
+    /**
+     * 	Copy CSV data into table
+     *	@param tableName table
+     *	@param columns columns in the order of the CSV fields
+     *	@param csv CSV data, without header
+     *	@param trxName optional transaction name
+     *	@return number of rows copied
+     *	@throws DBException if there is any SQLException or IOException
+     */
+    public static long copyIn (String tableName, String[] columns, Reader csv, String trxName) throws DBException
+    {
+        String sql = getCopySQL(tableName, columns);
+        return execute(sql, trxName, false, copyManager -> copyManager.copyIn(sql, csv, BUFFER_SIZE));
+    }	//	copyIn
+
+    /**
+     * 	Export query result to stream
+     *	@param query select without parameters
+     *	@param format data format
+     *	@param out stream, not closed
+     *	@param trxName optional transaction name
+     *	@return rows and bytes written
+     *	@throws DBException if there is any SQLException or IOException
+     */
+    public static Result copyOut (String query, Format format, OutputStream out, String trxName) throws DBException
+    {
+        return copyOut(query, format, trxName, (data, length) -> out.write(data, 0, length));
+    }	//	copyOut
+
+    /**
+     * 	Export query result to file
+     *	@param query select without parameters
+     *	@param format data format
+     *	@param channel file channel written at its position, not closed
+     *	@param trxName optional transaction name
+     *	@return rows and bytes written
+     *	@throws DBException if there is any SQLException or IOException
+     */
+    public static Result copyOut (String query, Format format, FileChannel channel, String trxName) throws DBException
+    {
+        return copyOut(query, format, trxName, (data, length) -> {
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        });
+    }	//	copyOut
+
+    /**
+     * 	Export query result chunk by chunk
+     */
+    private static Result copyOut (String query, Format format, String trxName, Sink sink) throws DBException
+    {
+        String sql = getCopyOutSQL(query, format);
+        return execute(sql, trxName, true, copyManager -> {
+            CopyOut copyOut = copyManager.copyOut(sql);
+            try
+            {
+                long bytes = 0;
+                byte[] data;
+                while ((data = copyOut.readFromCopy()) != null)
+                {
+                    sink.write(data, data.length);
+                    bytes += data.length;
+                }
+                return new Result(copyOut.getHandledRowCount(), bytes);
+            }
+            finally
+            {
+                if (copyOut.isActive())
+                    copyOut.cancelCopy();
+            }
+        });
+    }	//	copyOut
+
+    /**
+     * 	Run copy on connection of transaction or on a new connection
+     */
+    private static <T> T execute (String sql, String trxName, boolean readOnly, Copy<T> copy) throws DBException
+    {
+        long start = System.currentTimeMillis();
+        Connection conn = null;
+        boolean local = trxName == null;
+        try
+        {
+            if (local)
+            {
+                conn = DB.createConnection(false, Connection.TRANSACTION_READ_COMMITTED);
+                conn.setReadOnly(readOnly);
+            }
+            else
+            {
+                TransactionManager trx = TransactionManager.get(trxName, false);
+                if (trx == null)
+                    throw new DBException("Transaction closed or never opened (" + trxName + ")");
+                conn = trx.getConnection();
+            }
+            CopyManager copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+            T result = copy.run(copyManager);
+            if (local)
+                conn.commit();
+            log.info(sql + " #" + result + " in " + (System.currentTimeMillis() - start) + "ms");
+            return result;
+        }
+        catch (SQLException e)
+        {
+            rollback(conn, local);
+            throw new DBException(e, sql);
+        }
+        catch (IOException e)
+        {
+            rollback(conn, local);
+            throw new DBException(e);
+        }
+        catch (RuntimeException e)
+        {
+            rollback(conn, local);
+            throw e;
+        }
+        finally
+        {
+            if (local && conn != null)
+            {
+                DB.closeAndResetReadonlyConnection(conn);
+            }
+        }
+    }	//	execute
+
+    private static void rollback (Connection conn, boolean local)
+    {
+        if (!local || conn == null)
+            return;
+        try {
+            conn.rollback();
+        } catch (SQLException e1) {
+            e1.printStackTrace();
+        }
+    }	//	rollback
+
+    /**
+     * 	Get COPY statement
+     *	@return COPY table (columns) FROM STDIN in CSV format
+     */
+    static String getCopySQL (String tableName, String[] columns)
+    {
+        if (tableName == null || tableName.isEmpty() || columns == null || columns.length == 0)
+            throw new IllegalArgumentException("Required parameter missing - " + tableName);
+        return "COPY " + tableName + " (" + String.join(",", columns) + ") FROM STDIN WITH (FORMAT csv)";
+    }	//	getCopySQL
+
+    /**
+     * 	Get COPY TO statement
+     *	@return COPY (query) TO STDOUT in format
+     */
+    static String getCopyOutSQL (String query, Format format)
+    {
+        if (query == null || query.isEmpty())
+            throw new IllegalArgumentException("Required parameter missing - " + query);
+        String sql = query.trim();
+        if (sql.endsWith(";"))
+            sql = sql.substring(0, sql.length() - 1);
+        return "COPY (" + sql + ") TO STDOUT WITH (FORMAT "
+                + (format == Format.BINARY ? "binary" : "csv, HEADER") + ")";
+    }	//	getCopyOutSQL
+
+    /**
+     * 	Encode value as CSV field, null as empty unquoted field
+     *	@param sb buffer
+     *	@param index column index for errors
+     *	@param value value
+     */
+    static void encode (StringBuilder sb, int index, Object value)
+    {
+        if (value == null)
+            return;
+        if (value instanceof String)
+            quote(sb, (String) value);
+        else if (value instanceof Integer)
+            sb.append(((Integer) value).intValue());
+        else if (value instanceof BigDecimal)
+            sb.append(((BigDecimal) value).toPlainString());
+        else if (value instanceof Timestamp)
+            sb.append(value);
+        else if (value instanceof Boolean)
+            sb.append(((Boolean) value).booleanValue() ? 'Y' : 'N');
+        else if (value instanceof byte[])
+        {
+            //	bytea hex format
+            sb.append("\\x");
+            for (byte b : (byte[]) value)
+            {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+        }
+        else if (value instanceof Clob)
+        {
+            try
+            {
+                Clob clob = (Clob) value;
+                quote(sb, clob.getSubString(1, (int) clob.length()));
+            }
+            catch (SQLException e)
+            {
+                throw new DBException(e);
+            }
+        }
+        else
+            throw new DBException("Unknown parameter type " + index + " - " + value);
+    }	//	encode
+
+    /**
+     * 	Append quoted CSV field
+     */
+    private static void quote (StringBuilder sb, String value)
+    {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"')
+                sb.append('"');
+            sb.append(c);
+        }
+        sb.append('"');
+    }	//	quote
+
+    /**
+     * 	Send and clear buffer
+     */
+    private static void write (CopyIn copyIn, StringBuilder sb) throws SQLException
+    {
+        if (sb.length() == 0)
+            return;
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(data, 0, data.length);
+        sb.setLength(0);
+    }	//	write
+
+    /**
+     *	Copy operation
+     */
+    @FunctionalInterface
+    private interface Copy<T>
+    {
+        T run (CopyManager copyManager) throws SQLException, IOException;
+    }	//	Copy
+
+    /**
+     *	Receives exported data
+     */
+    @FunctionalInterface
+    private interface Sink
+    {
+        void write (byte[] data, int length) throws IOException;
+    }	//	Sink
+
+    /**
+     *	Rows and bytes exported
+     */
+    public static final class Result
+    {
+        private final long rows;
+        private final long bytes;
+
+        Result (long rows, long bytes)
+        {
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+
+        /**
+         * 	Get Rows written
+         *	@return rows
+         */
+        public long getRows()
+        {
+            return rows;
+        }
+
+        /**
+         * 	Get Bytes written
+         *	@return bytes
+         */
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return rows + " rows, " + bytes + " bytes";
+        }
+    }	//	Result
+}	//	DBCopy
@@ -0,0 +1,116 @@
+package com.gba.eugene.kernel.util;
+
+/**
+ *	Count-Min sketch with 4-bit counters, used to estimate how often a key was requested.<br/>
+ *	Counters are halved once the number of recorded accesses reaches ten times the table
+ *	capacity, so old popularity ages out. Not thread-safe, callers have to synchronize.
+ */
+final class FrequencySketch {
+
+    /** Seeds of the four hash functions	*/
+    private static final long[] SEED = new long[] {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    /** Mask to halve all 4-bit counters	*/
+    private static final long RESET_MASK = 0x7777777777777777L;
+    /** Mask of the low bit of all counters	*/
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /**	Counter table - 16 counters per long	*/
+    private long[]	m_table;
+    /**	Table index mask				*/
+    private int		m_tableMask;
+    /**	Accesses before aging			*/
+    private int		m_sampleSize;
+    /**	Accesses since last aging		*/
+    private int		m_size;
+
+    /**
+     * 	Sketch Constructor
+     *	@param maximumSize expected number of entries
+     */
+    FrequencySketch (long maximumSize)
+    {
+        int capacity = (int) Math.min(Math.max(maximumSize, 16), 1 << 24);
+        int tableSize = Integer.highestOneBit(capacity - 1) << 1;
+        m_table = new long[tableSize];
+        m_tableMask = tableSize - 1;
+        m_sampleSize = 10 * capacity;
+        m_size = 0;
+    }	//	FrequencySketch
+
+    /**
+     * 	Estimated frequency of key
+     *	@param key key
+     *	@return frequency 0..15
+     */
+    int frequency (Object key)
+    {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++)
+        {
+            int index = indexOf(hash, i);
+            int count = (int) ((m_table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }	//	frequency
+
+    /**
+     * 	Record an access of key
+     *	@param key key
+     */
+    void increment (Object key)
+    {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++)
+        {
+            int index = indexOf(hash, i);
+            int offset = (start + i) << 2;
+            if (((m_table[index] >>> offset) & 0xfL) != 0xfL)
+            {
+                m_table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++m_size == m_sampleSize)
+            reset();
+    }	//	increment
+
+    /**
+     * 	Halve all counters
+     */
+    private void reset()
+    {
+        int odd = 0;
+        for (int i = 0; i < m_table.length; i++)
+        {
+            odd += Long.bitCount(m_table[i] & ONE_MASK);
+            m_table[i] = (m_table[i] >>> 1) & RESET_MASK;
+        }
+        m_size = (m_size - (odd >>> 2)) >>> 1;
+    }	//	reset
+
+    /**
+     * 	Table index of hash for hash function i
+     */
+    private int indexOf (int hash, int i)
+    {
+        long h = (hash + SEED[i]) * SEED[i];
+        h += (h >>> 32);
+        return ((int) h) & m_tableMask;
+    }	//	indexOf
+
+    /**
+     * 	Supplemental hash against poor hashCode implementations
+     */
+    private static int spread (int x)
+    {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }	//	spread
+}	//	FrequencySketch
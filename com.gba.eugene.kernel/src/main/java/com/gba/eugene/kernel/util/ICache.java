@@ -2,15 +2,63 @@ package com.gba.eugene.kernel.util;
 
 public interface ICache {
 
+    /**
+     * 	Get (table) Name the cache is registered for
+     *	@return name or null if the cache is not reset by table
+     */
+    public default String getName()
+    {
+        return null;
+    }
+
     /**
      *	Reset Cache
      *	@return number of items reset
      */
     public int reset();
 
+    /**
+     *	Reset entries of a record.<br/>
+     *	Resets the whole cache unless the implementation knows which entries belong to the record.
+     *	@param Record_ID record
+     *	@return number of items reset
+     */
+    public default int reset (int Record_ID)
+    {
+        return reset();
+    }
+
     /**
      * 	Get Size of Cache
      *	@return number of items
      */
     public int size();
+
+    /**
+     * 	Get Statistics
+     *	@return snapshot of counters, only the size if the cache does not record statistics
+     */
+    public default CacheStats getStats()
+    {
+        return CacheStats.of(getName() != null ? getName() : toString(), size());
+    }
+
+    /**
+     * 	Get estimated Heap used by the entries, for the heap budget of {@link CacheMgt}
+     *	@return bytes or 0 if unknown - the cache is then not shrunk
+     */
+    public default long estimatedBytes()
+    {
+        return 0;
+    }
+
+    /**
+     * 	Shrink Cache by removing its least valuable entries
+     *	@param bytes estimated bytes to free
+     *	@return estimated bytes freed
+     */
+    public default long shrink (long bytes)
+    {
+        return 0;
+    }
 }
@@ -0,0 +1,431 @@
+package com.gba.eugene.kernel.util;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ *	Result cache of read-only queries, enabled by {@link DB#enableQueryCache(int, int)}.<br/>
+ *	Results are keyed by the normalized SQL and its parameters and tagged with the tables
+ *	named after FROM and JOIN. Each table has a version, registered with {@link CacheMgt}
+ *	under the table name without schema and quotes in lower case, as CacheMgt matches names:
+ *	{@link CacheMgt#reset(String)} increments it, which invalidates all results read from the table.<br/>
+ *	Queries inside a named transaction are never cached, as they may see uncommitted changes;
+ *	neither are statements other than SELECT or WITH, nor those that modify data or lock rows.
+ */
+public final class QueryCache {
+
+    /**	Cache Name					*/
+    public static final String	NAME = "DB_QueryCache";
+
+    /**	Results						*/
+    private final CCache<Key, Result> m_cache;
+    /**	Table Versions by name		*/
+    private final ConcurrentHashMap<String, TableVersion> m_versions = new ConcurrentHashMap<String, TableVersion>();
+
+    /**	Statistics Counters			*/
+    private final LongAdder		m_hitCount = new LongAdder();
+    private final LongAdder		m_missCount = new LongAdder();
+    private final LongAdder		m_bypassCount = new LongAdder();
+
+    /**
+     * 	Query Cache
+     *	@param maxSize maximum number of results
+     *	@param expireMinutes expire results after minutes or 0
+     */
+    QueryCache (int maxSize, int expireMinutes)
+    {
+        m_cache = new CCache<Key, Result>(NAME, Math.min(maxSize, 1000), expireMinutes, maxSize);
+    }	//	QueryCache
+
+    /**
+     * 	Get cached result or run query
+     *	@param trxName transaction - not cached if not null
+     *	@param sql sql
+     *	@param params parameters
+     *	@param query runs the query
+     *	@return result
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get (String trxName, String sql, Object[] params, Supplier<T> query)
+    {
+        Key key = trxName == null ? newKey(sql, params) : null;
+        if (key == null)
+        {
+            m_bypassCount.increment();
+            return query.get();
+        }
+        Result result = m_cache.get(key);
+        if (result != null && isCurrent(key, result))
+        {
+            m_hitCount.increment();
+            return (T) result.value;
+        }
+        m_missCount.increment();
+        if (result != null)
+            m_cache.remove(key);
+        result = m_cache.get(key, k -> {
+            //	versions before the query, so a reset while running invalidates the result
+            long[] versions = new long[k.tables.length];
+            for (int i = 0; i < versions.length; i++)
+                versions[i] = getVersion(k.tables[i]).get();
+            return new Result(query.get(), versions);
+        });
+        return (T) result.value;
+    }	//	get
+
+    /**
+     * 	Get Statistics
+     *	@return hits and misses of cacheable queries, evictions and expirations of results
+     */
+    public CacheStats getStats()
+    {
+        CacheStats stats = m_cache.getStats();
+        return new CacheStats(NAME, m_cache.size(),
+                m_hitCount.sum(), m_missCount.sum(),
+                stats.getLoadSuccessCount(), stats.getLoadFailureCount(), stats.getTotalLoadTime(),
+                stats.getEvictionCount(), stats.getExpirationCount());
+    }	//	getStats
+
+    /**
+     * 	Get number of queries not cached (transaction, no table or unsupported parameter)
+     *	@return count
+     */
+    public long getBypassCount()
+    {
+        return m_bypassCount.sum();
+    }	//	getBypassCount
+
+    /**
+     * 	Clear all results
+     */
+    public void clear()
+    {
+        m_cache.reset();
+    }	//	clear
+
+    /**
+     * 	Result still valid
+     */
+    private boolean isCurrent (Key key, Result result)
+    {
+        for (int i = 0; i < key.tables.length; i++)
+        {
+            if (getVersion(key.tables[i]).get() != result.versions[i])
+                return false;
+        }
+        return true;
+    }	//	isCurrent
+
+    private TableVersion getVersion (String tableName)
+    {
+        TableVersion version = m_versions.get(tableName);
+        if (version == null)
+        {
+            version = m_versions.computeIfAbsent(tableName, TableVersion::new);
+            CacheMgt.get().register(version);
+        }
+        return version;
+    }	//	getVersion
+
+    /**
+     * 	Create Key
+     *	@return key or null if not cacheable
+     */
+    private Key newKey (String sql, Object[] params)
+    {
+        if (sql == null)
+            return null;
+        Object[] values = params == null ? new Object[0] : params.clone();
+        for (int i = 0; i < values.length; i++)
+        {
+            Object value = values[i];
+            if (value instanceof Timestamp)
+                values[i] = ((Timestamp) value).clone();
+            else if (!(value == null || value instanceof String || value instanceof Integer
+                || value instanceof Long || value instanceof BigDecimal || value instanceof Boolean))
+                return null;
+        }
+        String normalized = normalize(sql);
+        List<String> tokens = tokenize(normalized);
+        if (!isQuery(tokens))
+            return null;
+        String[] tables = getTables(tokens);
+        if (tables.length == 0)
+            return null;
+        return new Key(normalized, values, tables);
+    }	//	newKey
+
+    /**
+     * 	Collapse white space outside of literals
+     *	@param sql sql
+     *	@return normalized sql
+     */
+    static String normalize (String sql)
+    {
+        StringBuilder sb = new StringBuilder(sql.length());
+        boolean literal = false;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++)
+        {
+            char c = sql.charAt(i);
+            if (c == '\'')
+                literal = !literal;
+            if (!literal && Character.isWhitespace(c))
+            {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space)
+            {
+                sb.append(' ');
+                space = false;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }	//	normalize
+
+    /**
+     * 	Get Tables after FROM and JOIN, including comma separated lists
+     *	@param sql normalized sql
+     *	@return table names normalized by {@link CacheMgt#normalizeName(String)}
+     */
+    static String[] getTables (String sql)
+    {
+        return getTables(tokenize(sql));
+    }	//	getTables
+
+    private static String[] getTables (List<String> tokens)
+    {
+        List<String> tables = new ArrayList<String>();
+        for (int i = 0; i < tokens.size() - 1; i++)
+        {
+            String token = tokens.get(i);
+            if (!token.equalsIgnoreCase("FROM") && !token.equalsIgnoreCase("JOIN"))
+                continue;
+            int j = i + 1;
+            while (j < tokens.size() && isIdentifier(tokens.get(j)))
+            {
+                String table = CacheMgt.normalizeName(tokens.get(j));
+                if (!table.isEmpty() && !tables.contains(table))
+                    tables.add(table);
+                j++;
+                //	alias
+                if (j < tokens.size() && tokens.get(j).equalsIgnoreCase("AS"))
+                    j++;
+                if (j < tokens.size() && isIdentifier(tokens.get(j)) && !isKeyword(tokens.get(j)))
+                    j++;
+                if (j < tokens.size() && tokens.get(j).equals(","))
+                    j++;
+                else
+                    break;
+            }
+        }
+        return tables.toArray(new String[tables.size()]);
+    }	//	getTables
+
+    /**
+     * 	Is read only query: SELECT or WITH without data modification or row locks
+     *	@param sql normalized sql
+     *	@return true if the result may be cached
+     */
+    static boolean isQuery (String sql)
+    {
+        return isQuery(tokenize(sql));
+    }	//	isQuery
+
+    private static boolean isQuery (List<String> tokens)
+    {
+        if (tokens.isEmpty())
+            return false;
+        String first = tokens.get(0);
+        if (!first.equalsIgnoreCase("SELECT") && !first.equalsIgnoreCase("WITH"))
+            return false;
+        for (int i = 1; i < tokens.size(); i++)
+        {
+            String token = tokens.get(i).toUpperCase();
+            //	data modifying CTE or RETURNING
+            if (MODIFYING.contains(token))
+                return false;
+            //	FOR UPDATE, FOR NO KEY UPDATE, FOR SHARE, FOR KEY SHARE
+            if (token.equals("FOR") && i + 1 < tokens.size()
+                && LOCKING.contains(tokens.get(i + 1).toUpperCase()))
+                return false;
+        }
+        return true;
+    }	//	isQuery
+
+    /**
+     * 	Split into identifiers and single characters, skipping literals
+     */
+    private static List<String> tokenize (String sql)
+    {
+        List<String> tokens = new ArrayList<String>();
+        int i = 0;
+        while (i < sql.length())
+        {
+            char c = sql.charAt(i);
+            if (c == '\'')
+            {
+                int end = sql.indexOf('\'', i + 1);
+                i = end < 0 ? sql.length() : end + 1;
+            }
+            else if (Character.isLetter(c) || c == '_' || c == '"')
+            {
+                //	identifier, possibly qualified and quoted
+                int start = i;
+                while (i < sql.length())
+                {
+                    char ch = sql.charAt(i);
+                    if (ch == '"')
+                    {
+                        int end = sql.indexOf('"', i + 1);
+                        i = end < 0 ? sql.length() : end + 1;
+                    }
+                    else if (Character.isLetterOrDigit(ch) || ch == '_' || ch == '.')
+                        i++;
+                    else
+                        break;
+                }
+                tokens.add(sql.substring(start, i));
+            }
+            else
+            {
+                if (!Character.isWhitespace(c))
+                    tokens.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return tokens;
+    }	//	tokenize
+
+    private static boolean isIdentifier (String token)
+    {
+        return Character.isLetter(token.charAt(0)) || token.charAt(0) == '_' || token.charAt(0) == '"';
+    }	//	isIdentifier
+
+    /**	Keywords following a table	*/
+    private static final Set<String> KEYWORDS = Set.of("WHERE", "JOIN", "INNER", "LEFT", "RIGHT", "FULL",
+            "CROSS", "NATURAL", "ON", "USING", "GROUP", "ORDER", "HAVING", "LIMIT", "OFFSET", "UNION",
+            "EXCEPT", "INTERSECT", "FOR", "WINDOW", "FETCH");
+
+    /**	Keywords of data modification	*/
+    private static final Set<String> MODIFYING = Set.of("INSERT", "UPDATE", "DELETE", "MERGE", "RETURNING");
+    /**	Keywords following FOR in a locking clause	*/
+    private static final Set<String> LOCKING = Set.of("UPDATE", "NO", "SHARE", "KEY");
+
+    private static boolean isKeyword (String token)
+    {
+        return KEYWORDS.contains(token.toUpperCase());
+    }	//	isKeyword
+
+    /**
+     * 	String Representation
+     * 	@return info
+     */
+    @Override
+    public String toString()
+    {
+        return "QueryCache[" + m_cache.size() + "/" + m_cache.getMaxWeight()
+                + ",Tables=" + m_versions.size() + "]";
+    }	//	toString
+
+    /**
+     *	Query Key: normalized sql and parameters
+     */
+    private static final class Key
+    {
+        private final String sql;
+        private final Object[] params;
+        private final String[] tables;
+        private final int hash;
+
+        Key (String sql, Object[] params, String[] tables)
+        {
+            this.sql = sql;
+            this.params = params;
+            this.tables = tables;
+            this.hash = 31 * sql.hashCode() + Arrays.hashCode(params);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals (Object obj)
+        {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return hash == other.hash && sql.equals(other.sql) && Arrays.equals(params, other.params);
+        }
+    }	//	Key
+
+    /**
+     *	Query Result with the table versions it was read at
+     */
+    private static final class Result
+    {
+        private final Object value;
+        private final long[] versions;
+
+        Result (Object value, long[] versions)
+        {
+            this.value = value;
+            this.versions = versions;
+        }
+    }	//	Result
+
+    /**
+     *	Version of a table, incremented when the table is reset
+     */
+    private static final class TableVersion extends AtomicLong implements ICache
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        TableVersion (String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name;
+        }
+
+        @Override
+        public int reset()
+        {
+            incrementAndGet();
+            return 0;
+        }
+
+        @Override
+        public int size()
+        {
+            return 0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "QueryCache.TableVersion[" + name + "," + get() + "]";
+        }
+    }	//	TableVersion
+}	//	QueryCache
@@ -0,0 +1,28 @@
+package com.gba.eugene.kernel.util;
+
+/**
+ *	Why an entry left a {@link CCache}
+ *	@see CacheRemovalListener
+ */
+public enum RemovalCause {
+
+    /**	Removed by remove or put of null	*/
+    EXPLICIT,
+    /**	Value replaced by put or refresh	*/
+    REPLACED,
+    /**	Expired after write or access		*/
+    EXPIRED,
+    /**	Evicted by size, weight or heap budget	*/
+    EVICTED,
+    /**	Removed by cache or record reset	*/
+    RESET;
+
+    /**
+     * 	Entry was removed automatically, not by the application
+     *	@return true if expired or evicted
+     */
+    public boolean wasEvicted()
+    {
+        return this == EXPIRED || this == EVICTED;
+    }	//	wasEvicted
+}	//	RemovalCause
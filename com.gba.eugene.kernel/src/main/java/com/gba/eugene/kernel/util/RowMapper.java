@@ -0,0 +1,21 @@
+package com.gba.eugene.kernel.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ *	Maps the current row of a result set to an object.
+ *	@param <T> object type
+ *	@see DB#getAllEx(String, String, String, java.util.Collection, RowMapper, RowMapper)
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    /**
+     * 	Map current row - do not move the cursor
+     *	@param rs result set
+     *	@return object
+     *	@throws SQLException
+     */
+    public T map (ResultSet rs) throws SQLException;
+}
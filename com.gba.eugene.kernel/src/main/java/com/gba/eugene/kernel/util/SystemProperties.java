@@ -18,6 +18,8 @@ public final class SystemProperties implements Serializable {
     /** Connection Details	*/
     public static final String	P_CONNECTION = "Connection";
     private static final String	DEFAULT_CONNECTION = "";
+    /** Caches to prewarm (comma separated), each with its SQL in CachePrewarm.&lt;name&gt;	*/
+    public static final String	P_CACHE_PREWARM = "CachePrewarm";
 
     /** App properties */
     private static final String[] PROPERTIES = new String[]{
@@ -3,11 +3,10 @@ package com.gba.eugene.kernel.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyVetoException;
-import java.beans.VetoableChangeListener;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -19,6 +18,8 @@ public class TransactionManager{
     private	String 		m_trxName = null;
     private boolean		m_active = false;
     private long m_startTime;
+    /**	Cache invalidations applied when the transaction ends	*/
+    private final List<Runnable> m_cacheChanges = new ArrayList<Runnable>();
 
     /**	Transaction Cache					*/
     //private static CCache<String,TransactionManager> 	s_cache = null;	//	create change listener
@@ -83,6 +84,19 @@ public class TransactionManager{
 
 
 
+    /**
+     * 	Create Transaction on connection
+     *	@param trxName unique name
+     *	@param con connection
+     *	@return transaction
+     */
+    static synchronized TransactionManager create (String trxName, Connection con)
+    {
+        TransactionManager retValue = new TransactionManager (trxName, con);
+        s_cache.put(trxName, retValue);
+        return retValue;
+    }	//	create
+
     /**
      * 	Set Trx Name
      *	@param trxName transaction name
@@ -172,7 +186,92 @@ public class TransactionManager{
     }
 
     /**
-     * Commit
+     * 	Invalidate cache entry of changed record when the transaction ends, or now without transaction.<br/>
+     * 	The next read loads the committed value: a value put after the commit could overwrite the
+     * 	newer value of a transaction committed in between. Loads running when the entry is
+     * 	invalidated do not cache the value they read.
+     *	@param trxName transaction or null
+     *	@param cache cache
+     *	@param key key
+     *	@see CCache#invalidate(Object)
+     */
+    public static <K> void cacheInvalidate (String trxName, CCache<K,?> cache, K key)
+    {
+        TransactionManager trx = trxName == null ? null : get(trxName, false);
+        if (trx == null)
+            cache.invalidate(key);
+        else
+            trx.addCacheChange(() -> cache.invalidate(key));
+    }	//	cacheInvalidate
+
+    /**
+     * 	Reset cache entries of record when the transaction ends, or now without transaction
+     *	@param trxName transaction or null
+     *	@param tableName table name
+     *	@param Record_ID record or 0 for all
+     */
+    public static void cacheReset (String trxName, String tableName, int Record_ID)
+    {
+        TransactionManager trx = trxName == null ? null : get(trxName, false);
+        if (trx == null)
+            CacheMgt.get().reset(tableName, Record_ID);
+        else
+            trx.addCacheChange(() -> CacheMgt.get().reset(tableName, Record_ID));
+    }	//	cacheReset
+
+    /**
+     * 	Add cache invalidation to apply when the transaction ends
+     */
+    private void addCacheChange (Runnable change)
+    {
+        synchronized (m_cacheChanges)
+        {
+            m_cacheChanges.add(change);
+        }
+    }	//	addCacheChange
+
+    /**
+     * 	Apply and clear buffered cache invalidations, in the order buffered
+     */
+    private void applyCacheChanges()
+    {
+        List<Runnable> changes;
+        synchronized (m_cacheChanges)
+        {
+            if (m_cacheChanges.isEmpty())
+                return;
+            changes = new ArrayList<Runnable>(m_cacheChanges);
+            m_cacheChanges.clear();
+        }
+        for (Runnable change : changes)
+        {
+            try
+            {
+                change.run();
+            }
+            catch (RuntimeException e)
+            {
+                log.error(m_trxName + ": cache change failed", e);
+            }
+        }
+    }	//	applyCacheChanges
+
+    /**
+     * 	Drop buffered cache changes
+     */
+    private void clearCacheChanges()
+    {
+        synchronized (m_cacheChanges)
+        {
+            m_cacheChanges.clear();
+        }
+    }	//	clearCacheChanges
+
+    /**
+     * Commit.<br/>
+     * Cache invalidations of the transaction are applied after the database commit, also if it
+     * fails or there is no connection, as the outcome may be unknown. They are not atomic with the
+     * commit: until applied, other threads may still read the old values from the cache.
      * @param throwException if true, re-throws exception
      * @return true if success
      **/
@@ -187,12 +286,14 @@ public class TransactionManager{
                 //log.log(isLocalTrx(m_trxName) ? Level.FINE : Level.INFO, "**** " + m_trxName);
                 log.trace ("**** {} " + m_trxName);
                 m_active = false;
+                applyCacheChanges();
                 return true;
             }
         }
         catch (SQLException e)
         {
             log.trace( m_trxName, e);
+            applyCacheChanges();
             if (throwException)
             {
                 m_active = false;
@@ -200,6 +301,7 @@ public class TransactionManager{
             }
         }
         m_active = false;
+        applyCacheChanges();
         return false;
     }	//	commit
 
@@ -220,12 +322,14 @@ public class TransactionManager{
     }
 
     /**
-     * 	Rollback
+     * 	Rollback.<br/>
+     * 	Cache changes of the transaction are dropped.
      *  @param throwException if true, re-throws exception
      *	@return true if success, false if failed or transaction already rollback
      */
     public boolean rollback(boolean throwException) throws SQLException
     {
+        clearCacheChanges();
         //local
         try
         {
@@ -4,7 +4,7 @@ module com.gba.eugene.kernel {
     requires org.postgresql.jdbc;
     requires com.zaxxer.hikari;
     requires java.sql.rowset;
-    requires java.desktop;
+    requires java.management;
 
     exports com.gba.eugene.kernel.util;
     exports com.gba.eugene.kernel.db;
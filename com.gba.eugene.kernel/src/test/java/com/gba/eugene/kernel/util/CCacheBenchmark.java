@@ -0,0 +1,94 @@
+package com.gba.eugene.kernel.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention benchmark for {@link CCache}.<br/>
+ * Compares the cache against a HashMap guarded by an external lock, which is what callers
+ * had to do before CCache was thread-safe. Run {@link #main(String[])} from the test classpath
+ * to measure 1 to 64 threads; 90% of the operations are reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CCacheBenchmark {
+
+    /** Thread counts measured by {@link #main(String[])}	*/
+    private static final int[] THREADS = new int[]{1, 2, 4, 8, 16, 32, 64};
+
+    @Param({"10000"})
+    public int size;
+
+    private CCache<Integer, String> cache;
+    private Map<Integer, String> locked;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        cache = new CCache<Integer, String>("Benchmark", size, 0);
+        locked = Collections.synchronizedMap(new HashMap<Integer, String>(size));
+        for (int i = 0; i < size; i++)
+        {
+            String value = "Value" + i;
+            cache.put(i, value);
+            locked.put(i, value);
+        }
+    }
+
+    @Benchmark
+    public Object ccache()
+    {
+        return access(cache);
+    }
+
+    @Benchmark
+    public Object lockedHashMap()
+    {
+        return access(locked);
+    }
+
+    private Object access(Map<Integer, String> map)
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Integer key = random.nextInt(size);
+        if (random.nextInt(10) == 0)
+            return map.put(key, "Value" + key);
+        return map.get(key);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        for (int threads : THREADS)
+        {
+            Options options = new OptionsBuilder()
+                    .include(CCacheBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
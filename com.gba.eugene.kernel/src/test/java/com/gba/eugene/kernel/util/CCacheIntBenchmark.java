@@ -0,0 +1,92 @@
+package com.gba.eugene.kernel.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record_ID lookup benchmark of {@link CCacheInt} against {@link CCache} with Integer keys.<br/>
+ * Keys are spread beyond the Integer cache range, so CCache has to box them. Run
+ * {@link #main(String[])} from the test classpath; 90% of the operations are reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-XX:+UseParallelGC")
+public class CCacheIntBenchmark {
+
+    /** Thread counts measured by {@link #main(String[])}	*/
+    private static final int[] THREADS = new int[]{1, 4, 16};
+    /** First Record_ID			*/
+    private static final int FIRST_ID = 1000000;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private CCache<Integer, String> cache;
+    private CCacheInt<String> intCache;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        cache = new CCache<Integer, String>("Benchmark", size, 0);
+        intCache = new CCacheInt<String>("Benchmark_Int", size, 0);
+        for (int i = 0; i < size; i++)
+        {
+            String value = "Value" + i;
+            cache.put(FIRST_ID + i, value);
+            intCache.put(FIRST_ID + i, value);
+        }
+    }
+
+    @Benchmark
+    public Object ccache()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int key = FIRST_ID + random.nextInt(size);
+        if (random.nextInt(10) == 0)
+            return cache.put(key, "Value");
+        return cache.get(key);
+    }
+
+    @Benchmark
+    public Object ccacheInt()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int key = FIRST_ID + random.nextInt(size);
+        if (random.nextInt(10) == 0)
+            return intCache.put(key, "Value");
+        return intCache.get(key);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        for (int threads : THREADS)
+        {
+            Options options = new OptionsBuilder()
+                    .include(CCacheIntBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler("gc")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
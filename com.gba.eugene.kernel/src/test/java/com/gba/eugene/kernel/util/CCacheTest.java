@@ -0,0 +1,671 @@
+package com.gba.eugene.kernel.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.gba.eugene.kernel.db.DatabaseConnection;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit test for {@link CCache}.
+ */
+public class CCacheTest {
+
+    @Test
+    public void shouldPutGetAndReset() {
+        CCache<Integer, String> cache = new CCache<Integer, String>("Test_Basic", 10);
+        assertTrue(cache.isReset());
+        cache.put(1, "One");
+        cache.put(2, "Two");
+        assertEquals("One", cache.get(1));
+        assertFalse(cache.isReset());
+        cache.put(2, null);
+        assertNull(cache.get(2));
+        assertEquals(1, cache.reset());
+        assertTrue(cache.isEmpty());
+        CacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+    }
+
+    @Test
+    public void shouldSurviveConcurrentAccess() throws Exception {
+        CCache<Integer, Integer> cache = new CCache<Integer, Integer>("Test_Concurrent", 10);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++)
+        {
+            final int offset = t * 1000;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1000; i++)
+                {
+                    cache.put(offset + i, i);
+                    cache.get(offset + i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(8000, cache.size());
+    }
+
+    @Test
+    public void shouldStayWithinMaxSizeAndKeepHotEntries() {
+        CCache<Integer, String> cache = new CCache<Integer, String>("Test_Bounded", 10, 0, 100);
+        for (int i = 0; i < 50; i++)
+        {
+            cache.put(i, "Hot" + i);
+            for (int hit = 0; hit < 5; hit++)
+                cache.get(i);
+        }
+        //	one-hit scan must not flush the entries still in use
+        for (int i = 1000; i < 11000; i++)
+        {
+            cache.put(i, "Cold" + i);
+            if (i % 3 == 0)		//	reuse distance beyond plain LRU reach
+                cache.get((i / 3) % 50);
+        }
+        assertTrue(cache.size() <= 100);
+        assertEquals(cache.size(), cache.weightedSize());
+        int hot = 0;
+        for (int i = 0; i < 50; i++)
+        {
+            if (cache.get(i) != null)
+                hot++;
+        }
+        assertTrue(hot >= 45, "hot entries retained: " + hot);
+        assertTrue(cache.getStats().getEvictionCount() >= 10000 - 100);
+    }
+
+    @Test
+    public void shouldBoundByWeight() {
+        CCache<Integer, String> cache = new CCache<Integer, String>("Test_Weighted", 10, 0, 1000L,
+                (key, value) -> value.length());
+        for (int i = 0; i < 500; i++)
+            cache.put(i, "0123456789");
+        assertTrue(cache.weightedSize() <= 1000);
+        assertEquals(cache.size() * 10L, cache.weightedSize());
+    }
+
+    @Test
+    public void shouldLoadMissOnceForConcurrentCallers() throws Exception {
+        CCache<Integer, String> cache = new CCache<Integer, String>("Test_Loading", 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        for (int t = 0; t < 16; t++)
+        {
+            Thread thread = new Thread(() -> {
+                try
+                {
+                    start.await();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                results.add(cache.get(7, key -> {
+                    loads.incrementAndGet();
+                    try
+                    {
+                        Thread.sleep(100);
+                    }
+                    catch (InterruptedException e)
+                    {
+                    }
+                    return "Seven";
+                }));
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getStats().getLoadSuccessCount());
+        assertEquals(16, results.size());
+        assertTrue(results.stream().allMatch("Seven"::equals));
+    }
+
+    @Test
+    public void shouldNotCacheLoadOverlappingResetOrWrite() {
+        CCache<Integer, String> cache = new CCache<Integer, String>("Test_Load_Race", 10);
+        assertEquals("Stale", cache.get(1, key -> {
+            cache.reset();
+            return "Stale";
+        }));
+        assertNull(cache.get(1));
+        assertEquals("Old", cache.get(2, key -> {
+            cache.put(key, "New");
+            return "Old";
+        }));
+        assertEquals("New", cache.get(2));
+        CacheMgt.get().unregister(cache);
+    }
+
+    @Test
+    public void shouldBulkLoadOnlyMissingKeys() {
+        CCache<Integer, String> cache = new CCache<Integer, String>("Test_BulkLoading", 10);
+        cache.put(1, "One");
+        List<Integer> requested = new ArrayList<Integer>();
+        Map<Integer, String> values = cache.getAll(Arrays.asList(1, 2, 3), keys -> {
+            requested.addAll(keys);
+            Map<Integer, String> loaded = new HashMap<Integer, String>();
+            loaded.put(2, "Two");
+            return loaded;
+        });
+        assertEquals(Arrays.asList(2, 3), requested);
+        assertEquals(Arrays.asList(1, 2), new ArrayList<Integer>(values.keySet()));
+        assertEquals("Two", cache.get(2));
+    }
+
+    @Test
+    public void shouldResetOnlyEntriesOfRecord() {
+        CCache<Integer, String> byId = new CCache<Integer, String>("Test_Record", 10);
+        byId.setRecordIdMapper(CCache.RECORD_ID_KEY);
+        CCache<String, String> byValue = new CCache<String, String>("Test_Record", 10);
+        byValue.setRecordIdMapper(key -> Integer.parseInt(key.substring(key.indexOf('_') + 1)));
+        CCache<Integer, String> lines = new CCache<Integer, String>("Test_RecordLine", 10);
+        lines.setRecordIdMapper(CCache.RECORD_ID_KEY);
+        for (int i = 1; i <= 3; i++)
+        {
+            byId.put(i, "Record" + i);
+            byValue.put("Key_" + i, "Record" + i);
+            lines.put(i, "Line" + i);
+        }
+        //	lines are keyed by their own ID - the dependent cache is reset completely
+        assertEquals(5, CacheMgt.get().reset("Test_Record", 2));
+        assertNull(byId.get(2));
+        assertEquals("Record1", byId.get(1));
+        assertNull(byValue.get("Key_2"));
+        assertEquals(2, byValue.size());
+        assertTrue(lines.isEmpty());
+        //	record of the dependent table itself
+        lines.put(1, "Line1");
+        lines.put(2, "Line2");
+        assertEquals(1, CacheMgt.get().reset("Test_RecordLine", 2));
+        assertEquals("Line1", lines.get(1));
+        assertEquals(2, byId.size());
+        //	no cache of the table itself
+        assertEquals(0, CacheMgt.get().reset("Test_RecordL", 0));
+        assertEquals("Line1", lines.get(1));
+    }
+
+    @Test
+    public void shouldKeepValuesOffHeapAndCompact() {
+        COffHeapCache<Integer, String> cache = new COffHeapCache<Integer, String>("Test_OffHeap", 10, 0,
+                4096, CacheSerializer.STRING, 1024);
+        assertNull(cache.put(1, "One"));
+        assertEquals("One", cache.put(1, "Uno"));
+        assertEquals("Uno", cache.remove(1));
+        assertNull(cache.remove(1));
+        for (int i = 0; i < 1000; i++)
+            cache.put(i % 10, "Value" + i);
+        assertEquals(10, cache.size());
+        assertEquals("Value995", cache.get(5));
+        assertTrue(cache.getOffHeapBytes() <= 4096);
+        for (int i = 0; i < 1000; i++)
+            cache.put(i, "Value" + i);
+        assertTrue(cache.getOffHeapBytes() <= 4096);
+        assertTrue(cache.getStats().getEvictionCount() > 0);
+        assertEquals("Value999", cache.get(999));
+        assertEquals(cache.size(), CacheMgt.get().reset("Test_OffHeap"));
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void shouldCacheByPrimitiveRecordId() {
+        CCacheInt<String> cache = new CCacheInt<String>("Test_Int", 4);
+        for (int i = 1; i <= 1000; i++)
+            cache.put(i, "Record" + i);
+        for (int i = 1; i <= 1000; i += 2)
+            cache.remove(i);
+        assertEquals(500, cache.size());
+        assertNull(cache.get(999));
+        assertEquals("Record1000", cache.get(1000));
+        assertEquals("Record1000", cache.putIfAbsent(1000, "Other"));
+        assertEquals(1, CacheMgt.get().reset("Test_Int", 1000));
+        assertNull(cache.get(1000));
+        assertEquals(499, cache.size());
+        long bytes = cache.estimatedBytes();
+        assertTrue(cache.shrink(bytes / 2) >= bytes / 2);
+        assertTrue(cache.size() < 499);
+        assertTrue(cache.estimatedBytes() <= bytes / 2);
+        CCacheLong<String> longCache = new CCacheLong<String>("Test_Long", 4);
+        longCache.put(1L << 40, "Big");
+        assertEquals("Big", longCache.get(1L << 40));
+        assertNull(longCache.get(0));
+    }
+
+    @Test
+    public void shouldRefreshStaleEntryInBackground() throws Exception {
+        CCache<Integer, String> cache = new CCache<Integer, String>("Test_Refresh", 10);
+        AtomicInteger version = new AtomicInteger();
+        CountDownLatch reloaded = new CountDownLatch(1);
+        cache.setRefreshAfterWrite(1, TimeUnit.MILLISECONDS, key -> {
+            String value = "V" + version.incrementAndGet();
+            reloaded.countDown();
+            return value;
+        });
+        cache.put(1, "V0");
+        assertEquals("V0", cache.get(1));
+        //	refresh is due once the coarse clock passes the write time
+        for (int i = 0; i < 500 && "V0".equals(cache.get(1)); i++)
+            Thread.sleep(10);
+        assertTrue(reloaded.await(5, TimeUnit.SECONDS));
+        assertTrue(cache.get(1).startsWith("V") && !"V0".equals(cache.get(1)));
+    }
+
+    @Test
+    public void shouldShrinkLeastValuableCacheOverBudget() {
+        CCache<Integer, String> hot = new CCache<Integer, String>("Test_Budget_Hot", 1000, 0);
+        CCache<Integer, String> cold = new CCache<Integer, String>("Test_Budget_Cold", 1000, 0);
+        for (int i = 0; i < 1000; i++)
+        {
+            hot.put(i, "Hot" + i);
+            cold.put(i, "Cold" + i);
+            hot.get(i);
+            cold.get(-i - 1);
+        }
+        //	only these caches, not all registered ones
+        List<ICache> caches = List.of(hot, cold);
+        long budget = 3 * 1000 * CCache.DEFAULT_ENTRY_BYTES / 2;
+        assertTrue(CacheMgt.enforceHeapBudget(caches, budget) > 0);
+        assertEquals(1000, hot.size());
+        assertTrue(cold.size() < 1000);
+        assertTrue(CacheMgt.getEstimatedBytes(caches) <= budget);
+        assertEquals(0, CacheMgt.enforceHeapBudget(caches, budget));
+    }
+
+    @Test
+    public void shouldRestoreCacheFromSnapshot() throws Exception {
+        Path file = Files.createTempFile("cache", ".snapshot");
+        try
+        {
+            CCache<Integer, String> cache = new CCache<Integer, String>("Test_Snapshot", 10);
+            for (int i = 1; i <= 100; i++)
+                cache.put(i, "Record" + i);
+            CacheSnapshot snapshot = new CacheSnapshot(file, 1, 60);
+            snapshot.add(cache, CacheSerializer.INTEGER, CacheSerializer.STRING);
+            Map<Integer, Long> written = new HashMap<Integer, Long>();
+            for (CCache.Node<Integer, String> node : cache.getNodes())
+                written.put(node.key, node.writeTime);
+            Thread.sleep(5);
+            assertEquals(100, snapshot.save());
+            cache.reset();
+            cache.put(1, "Fresh");
+            assertEquals(99, snapshot.load());
+            assertEquals(100, cache.size());
+            assertEquals("Fresh", cache.get(1));
+            assertEquals("Record100", cache.get(100));
+            //	restored with original write time, expired entries dropped
+            for (CCache.Node<Integer, String> node : cache.getNodes())
+            {
+                if (node.key != 1)
+                    assertEquals(written.get(node.key), Long.valueOf(node.writeTime));
+            }
+            assertFalse(cache.restore(101, "Old", System.currentTimeMillis() - TimeUnit.HOURS.toMillis(3)));
+            cache.reset();
+            CacheSnapshot other = new CacheSnapshot(file, 2, 60);
+            other.add(cache, CacheSerializer.INTEGER, CacheSerializer.STRING);
+            assertEquals(0, other.load());
+            assertTrue(cache.isEmpty());
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void shouldInvalidateQueryResultsByTable() {
+        QueryCache cache = new QueryCache(100, 0);
+        AtomicInteger queries = new AtomicInteger();
+        String sql = "SELECT COUNT(*) FROM Test_Query_Order o\n  JOIN Test_Query_Line l ON (o.ID=l.ID) WHERE o.Name=?";
+        assertEquals(Arrays.asList("test_query_order", "test_query_line"), Arrays.asList(QueryCache.getTables(QueryCache.normalize(sql))));
+        for (int i = 0; i < 3; i++)
+            assertEquals(Integer.valueOf(1), cache.get(null, sql, new Object[]{"A"}, () -> queries.incrementAndGet() > 0 ? 1 : 0));
+        assertEquals(1, queries.get());
+        cache.get("Trx", sql, new Object[]{"A"}, () -> queries.incrementAndGet());
+        assertEquals(2, queries.get());
+        CacheMgt.get().reset("Test_Query_Line");
+        cache.get(null, sql.replace("\n  ", " "), new Object[]{"A"}, () -> queries.incrementAndGet());
+        assertEquals(3, queries.get());
+        assertEquals(2, cache.getStats().getHitCount());
+        assertEquals(1, cache.getBypassCount());
+
+        //	not cached: data modification and row locks
+        assertTrue(QueryCache.isQuery("WITH o AS (SELECT ID FROM Test_Query_Order) SELECT COUNT(*) FROM o"));
+        for (String modifying : new String[]{
+                "DELETE FROM Test_Query_Order WHERE ID=? RETURNING Name",
+                "UPDATE Test_Query_Order SET Name='A' FROM Test_Query_Line l WHERE l.ID=? RETURNING Name",
+                "SELECT Name FROM Test_Query_Order WHERE ID=? FOR UPDATE",
+                "SELECT Name FROM Test_Query_Order WHERE ID=? FOR NO KEY UPDATE",
+                "SELECT Name FROM Test_Query_Order WHERE ID=? FOR SHARE",
+                "WITH d AS (DELETE FROM Test_Query_Order RETURNING ID) SELECT COUNT(*) FROM d"})
+        {
+            assertFalse(QueryCache.isQuery(modifying), modifying);
+            int before = queries.get();
+            cache.get(null, modifying, new Object[]{"A"}, () -> queries.incrementAndGet());
+            cache.get(null, modifying, new Object[]{"A"}, () -> queries.incrementAndGet());
+            assertEquals(before + 2, queries.get(), modifying);
+        }
+    }
+
+    @Test
+    public void shouldInvalidateQueryResultsOfMixedCaseTables() {
+        QueryCache cache = new QueryCache(100, 0);
+        AtomicInteger queries = new AtomicInteger();
+        String[] sqls = new String[]{"SELECT COUNT(*) FROM test_query_mixed",
+                "SELECT COUNT(*) FROM adempiere.\"Test_Query_Mixed\" m WHERE m.ID>0"};
+        for (String sql : sqls)
+            assertEquals(Arrays.asList("test_query_mixed"), Arrays.asList(QueryCache.getTables(QueryCache.normalize(sql))));
+        for (String sql : sqls)
+            cache.get(null, sql, null, () -> queries.incrementAndGet());
+        CacheMgt.get().reset("TEST_Query_Mixed");
+        for (String sql : sqls)
+            cache.get(null, sql, null, () -> queries.incrementAndGet());
+        assertEquals(4, queries.get());
+    }
+
+    @Test
+    public void shouldReportRemovalCauses() throws Exception {
+        CCache<Integer, String> cache = new CCache<Integer, String>("Test_Removal", 10, 0, 2);
+        List<String> removals = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch delivered = new CountDownLatch(4);
+        cache.addRemovalListener((key, value, cause) -> removals.add(key + ":" + cause), false);
+        cache.addRemovalListener((key, value, cause) -> delivered.countDown(), true);
+        cache.put(1, "One");
+        cache.put(1, "Uno");
+        cache.remove(1);
+        cache.put(2, "Two");
+        cache.put(3, "Three");
+        cache.put(4, "Four");
+        cache.reset();
+        assertEquals(Arrays.asList("1:REPLACED", "1:EXPLICIT"), removals.subList(0, 2));
+        assertTrue(removals.stream().anyMatch(r -> r.endsWith(":EVICTED")));
+        assertTrue(removals.stream().anyMatch(r -> r.endsWith(":RESET")));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldAllowWritesFromEvictionListener() throws Exception {
+        CCache<Integer, String> cache = new CCache<Integer, String>("Test_Evict_Write", 10, 0, 4);
+        AtomicInteger evicted = new AtomicInteger();
+        AtomicInteger blocked = new AtomicInteger();
+        cache.addRemovalListener((key, value, cause) -> {
+            if (cause != RemovalCause.EVICTED || evicted.incrementAndGet() % 2 != 0)
+                return;
+            //	write of another thread must not wait for the policy
+            Thread writer = new Thread(() -> cache.put(key + 1000, value));
+            writer.start();
+            try
+            {
+                writer.join(1000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if (writer.isAlive())
+                blocked.incrementAndGet();
+        }, false);
+        for (int i = 0; i < 20; i++)
+            cache.put(i, "V" + i);
+        assertTrue(evicted.get() > 0);
+        assertEquals(0, blocked.get());
+        assertEquals(cache.size(), cache.weightedSize());
+        assertTrue(cache.size() <= 4);
+        CacheMgt.get().unregister(cache);
+    }
+
+    @Test
+    public void shouldExpireEntriesAfterWrite() {
+        AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+        CacheMgt.setTicker(clock::get);
+        try
+        {
+            CCache<Integer, String> cache = new CCache<Integer, String>("Test_ExpireWrite", 10, 1);
+            //	check expiry on read, the maintenance thread would use the same clock
+            CacheMgt.get().stopMaintenance();
+            cache.put(1, "A");
+            clock.addAndGet(30000);
+            cache.put(2, "B");
+            assertEquals("A", cache.get(1));
+            clock.addAndGet(30000);
+            //	reading does not extend the write time
+            assertNull(cache.get(1));
+            assertFalse(cache.containsKey(1));
+            assertEquals("B", cache.get(2));
+            cache.put(3, "C");
+            clock.addAndGet(30000 + 2 * CacheMgt.TICK_MS);
+            assertEquals(1, cache.expireEntries(clock.get()));
+            assertEquals(1, cache.size());
+            assertEquals("C", cache.get(3));
+        }
+        finally
+        {
+            CacheMgt.setTicker(null);
+        }
+    }
+
+    @Test
+    public void shouldExpireEntriesAfterAccess() {
+        AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+        CacheMgt.setTicker(clock::get);
+        try
+        {
+            CCache<Integer, String> cache = new CCache<Integer, String>("Test_ExpireAccess", 10, 1);
+            cache.setExpireAfterAccess(true);
+            CacheMgt.get().stopMaintenance();
+            cache.put(1, "A");
+            cache.put(2, "B");
+            for (int i = 0; i < 3; i++)
+            {
+                clock.addAndGet(40000);
+                assertEquals("A", cache.get(1));
+            }
+            //	only the entry not read for a minute expires
+            clock.addAndGet(2 * CacheMgt.TICK_MS);
+            assertEquals(1, cache.expireEntries(clock.get()));
+            assertNull(cache.get(2));
+            assertEquals("A", cache.get(1));
+            clock.addAndGet(60000);
+            assertNull(cache.get(1));
+            assertTrue(cache.isEmpty());
+        }
+        finally
+        {
+            CacheMgt.setTicker(null);
+        }
+    }
+
+    @Test
+    public void shouldExpireFromTimerWheelAcrossLevels() {
+        CacheTimerWheel<Integer, String> wheel = new CacheTimerWheel<Integer, String>(node -> node.writeTime);
+        long now = System.currentTimeMillis();
+        long[] expiry = new long[]{500, 70000, 5000000, 400000000000L};
+        for (int i = 0; i < expiry.length; i++)
+            wheel.replace(null, new CCache.Node<Integer, String>(i, "V" + i, 1, now + expiry[i]));
+        CCache.Node<Integer, String> removed = new CCache.Node<Integer, String>(9, "V9", 1, now + 500);
+        wheel.replace(null, removed);
+        wheel.replace(removed, null);
+        for (int i = 0; i < expiry.length; i++)
+        {
+            assertTrue(wheel.advance(now + expiry[i] - 1).isEmpty());
+            List<CCache.Node<Integer, String>> expired = wheel.advance(now + expiry[i] + 2 * CacheMgt.TICK_MS);
+            assertEquals(1, expired.size());
+            assertEquals(Integer.valueOf(i), expired.get(0).key);
+        }
+    }
+
+    @Test
+    public void shouldManageCacheOverJmx() throws Exception {
+        CCache<Integer, String> cache = new CCache<Integer, String>("Test_Jmx", 10);
+        cache.put(1, "One");
+        cache.get(1);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = server.queryNames(new ObjectName(CacheJmx.DOMAIN + ":type=CCache,name=\"Test_Jmx\",*"), null)
+                .iterator().next();
+        assertEquals(1, server.getAttribute(name, "Size"));
+        assertEquals(1L, server.getAttribute(name, "HitCount"));
+        assertNull(server.getAttribute(name, "LastReset"));
+        ObjectName mgt = new ObjectName(CacheJmx.DOMAIN + ":type=CacheMgt");
+        server.invoke(mgt, "resetTable", new Object[]{"Test_Jmx"}, new String[]{String.class.getName()});
+        assertTrue(cache.isEmpty());
+        assertTrue(server.getAttribute(name, "LastReset") != null);
+        CacheMgt.get().unregister(cache);
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void shouldEncodeInvalidationsOfBus() {
+        CacheInvalidationBus bus = new CacheInvalidationBus(new DatabaseConnection("localhost"));
+        String node = bus.getNodeId();
+
+        //	de-duplicated per table
+        bus.addPending("C_Order", 1);
+        bus.addPending("C_Order", 1);
+        bus.addPending("C_Order", 2);
+        bus.addPending("M_Product", 0);
+        bus.addPending("M_Product", 5);
+        bus.addPending("", 7);
+        for (int i = 1; i <= CacheInvalidationBus.MAX_RECORD_IDS + 1; i++)
+            bus.addPending("C_BPartner", i);
+        assertEquals(Arrays.asList(node + "|C_Order|1,2", node + "|M_Product|*", node + "||*", node + "|C_BPartner|*"),
+                bus.encode(bus.takePending()));
+        assertTrue(bus.takePending().isEmpty());
+
+        //	split below the payload limit
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (int i = 0; i < 2000; i++)
+            ids.add(1000000000 + i);
+        Map<String, Set<Integer>> pending = new LinkedHashMap<String, Set<Integer>>();
+        pending.put("C_Order", ids);
+        List<String> payloads = bus.encode(pending);
+        assertTrue(payloads.size() > 1);
+        Set<Integer> sent = new HashSet<Integer>();
+        for (String payload : payloads)
+        {
+            assertTrue(payload.length() <= CacheInvalidationBus.MAX_PAYLOAD);
+            for (String id : payload.substring(payload.lastIndexOf('|') + 1).split(","))
+                sent.add(Integer.valueOf(id));
+        }
+        assertEquals(ids, sent);
+
+        //	applied by other nodes only
+        CCache<Integer, String> cache = new CCache<Integer, String>("Test_Bus", 10);
+        cache.setRecordIdMapper(CCache.RECORD_ID_KEY);
+        for (int i = 1; i <= 3; i++)
+            cache.put(i, "Record" + i);
+        pending.put("Test_Bus", new LinkedHashSet<Integer>(Arrays.asList(1, 2)));
+        pending.remove("C_Order");
+        String payload = bus.encode(pending).get(0);
+        bus.receive(payload);
+        assertEquals(3, cache.size());
+        AtomicInteger dependentResets = new AtomicInteger();
+        ICache dependent = new ICache() {
+            public String getName() { return "Test_Bus_Line"; }
+            public int reset() { dependentResets.incrementAndGet(); return 0; }
+            public int size() { return 0; }
+        };
+        CacheMgt.get().register(dependent);
+        new CacheInvalidationBus(new DatabaseConnection("localhost")).receive(payload);
+        assertEquals(Collections.singleton(3), cache.keySet());
+        //	once per notification, not per record
+        assertEquals(1, dependentResets.get());
+        CacheMgt.get().unregister(dependent);
+        CacheMgt.get().unregister(cache);
+    }
+
+    @Test
+    public void shouldInvalidateCacheWhenTransactionEnds() throws Exception
+    {
+        CCache<Integer,String> cache = new CCache<>("Test_Trx", 10);
+        cache.put(1, "Old");
+        cache.put(2, "Two");
+
+        //	buffered until commit, then invalidated
+        TransactionManager trx = TransactionManager.create("Test_Trx_Commit", connection(false));
+        TransactionManager.cacheInvalidate("Test_Trx_Commit", cache, 1);
+        assertEquals("Old", cache.get(1));
+        assertTrue(trx.commit(true));
+        assertNull(cache.get(1));
+
+        //	dropped on rollback
+        trx = TransactionManager.create("Test_Trx_Rollback", connection(false));
+        TransactionManager.cacheInvalidate("Test_Trx_Rollback", cache, 2);
+        assertTrue(trx.rollback(true));
+        assertTrue(trx.commit(true));
+        assertEquals("Two", cache.get(2));
+
+        //	outcome of failed commit is unknown
+        trx = TransactionManager.create("Test_Trx_Failed", connection(true));
+        TransactionManager.cacheInvalidate("Test_Trx_Failed", cache, 2);
+        TransactionManager failed = trx;
+        assertThrows(SQLException.class, () -> failed.commit(true));
+        assertNull(cache.get(2));
+
+        //	no connection
+        cache.put(3, "Three");
+        trx = TransactionManager.get("Test_Trx_None", true);
+        TransactionManager.cacheInvalidate("Test_Trx_None", cache, 3);
+        assertFalse(trx.commit(true));
+        assertNull(cache.get(3));
+
+        //	load overlapping the commit read the old row
+        trx = TransactionManager.create("Test_Trx_Load", connection(false));
+        TransactionManager.cacheInvalidate("Test_Trx_Load", cache, 4);
+        TransactionManager loading = trx;
+        assertEquals("Old", cache.get(4, key -> {
+            assertTrue(loading.commit());
+            return "Old";
+        }));
+        assertNull(cache.get(4));
+        CacheMgt.get().unregister(cache);
+    }
+
+    /**
+     * 	Connection that only commits and rolls back
+     */
+    private static Connection connection (boolean failCommit)
+    {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    if (failCommit && method.getName().equals("commit"))
+                        throw new SQLException("Commit failed");
+                    return method.getName().equals("toString") ? "Test_Connection" : null;
+                });
+    }
+}
@@ -0,0 +1,55 @@
+package com.gba.eugene.kernel.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import javax.sql.rowset.serial.SerialClob;
+
+import com.gba.eugene.kernel.exceptions.DBException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit test for {@link DBCopy}.
+ */
+public class DBCopyTest {
+
+    @Test
+    public void shouldEncodeValuesAsCsv() throws Exception {
+        assertEquals("", encode(null));
+        assertEquals("\"Joe\"", encode("Joe"));
+        assertEquals("\"\"", encode(""));
+        assertEquals("\"say \"\"hi\"\", 1,2\n3\"", encode("say \"hi\", 1,2\n3"));
+        assertEquals("42", encode(42));
+        assertEquals("1000000.50", encode(new BigDecimal("1.00000050E+6")));
+        assertEquals("2024-01-02 03:04:05.0", encode(Timestamp.valueOf("2024-01-02 03:04:05")));
+        assertEquals("Y", encode(Boolean.TRUE));
+        assertEquals("N", encode(Boolean.FALSE));
+        assertEquals("\\x00ff10", encode(new byte[]{0, (byte) 0xFF, 0x10}));
+        assertEquals("\"Long \"\"text\"\"\"", encode(new SerialClob("Long \"text\"".toCharArray())));
+        assertThrows(DBException.class, () -> encode(new Object()));
+    }
+
+    @Test
+    public void shouldBuildCopySQL() {
+        assertEquals("COPY C_UOM (C_UOM_ID,Name) FROM STDIN WITH (FORMAT csv)",
+                DBCopy.getCopySQL("C_UOM", new String[]{"C_UOM_ID", "Name"}));
+        assertThrows(IllegalArgumentException.class, () -> DBCopy.getCopySQL("C_UOM", new String[0]));
+        assertThrows(IllegalArgumentException.class, () -> DBCopy.getCopySQL(null, new String[]{"Name"}));
+
+        assertEquals("COPY (SELECT * FROM C_UOM) TO STDOUT WITH (FORMAT csv, HEADER)",
+                DBCopy.getCopyOutSQL(" SELECT * FROM C_UOM; ", DBCopy.Format.CSV));
+        assertEquals("COPY (SELECT * FROM C_UOM) TO STDOUT WITH (FORMAT binary)",
+                DBCopy.getCopyOutSQL("SELECT * FROM C_UOM", DBCopy.Format.BINARY));
+        assertThrows(IllegalArgumentException.class, () -> DBCopy.getCopyOutSQL("", DBCopy.Format.CSV));
+    }
+
+    private static String encode (Object value) {
+        StringBuilder sb = new StringBuilder();
+        DBCopy.encode(sb, 1, value);
+        return sb.toString();
+    }
+}